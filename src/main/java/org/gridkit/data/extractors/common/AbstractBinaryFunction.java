@@ -26,6 +26,14 @@ public abstract class AbstractBinaryFunction<Left, Right, Result> extends Abstra
 	}
 
 	protected abstract Result evaluate(Left left, Right right); 
+
+	protected BinaryExtractor<Left> getLeft() {
+		return left;
+	}
+
+	protected BinaryExtractor<Right> getRight() {
+		return right;
+	}
 	
 	@Override
 	@SuppressWarnings("unchecked")
@@ -35,7 +43,7 @@ public abstract class AbstractBinaryFunction<Left, Right, Result> extends Abstra
 
 	@Override
 	public ValueComposer newComposer() {
-		return new ValueComposer() {
+		return new ResettableComposer() {
 			
 			private Object left;
 			private boolean hasLeft;
@@ -71,6 +79,14 @@ public abstract class AbstractBinaryFunction<Left, Right, Result> extends Abstra
 					receiver.push(r);
 				}
 			}
+
+			@Override
+			public void reset() {
+				left = null;
+				hasLeft = false;
+				right = null;
+				hasRight = false;
+			}
 		};
 	}
 
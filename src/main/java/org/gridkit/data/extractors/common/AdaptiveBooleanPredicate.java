@@ -0,0 +1,333 @@
+package org.gridkit.data.extractors.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.gridkit.data.extractors.common.BooleanBinaryPredicate.Op;
+
+/**
+ * <p>
+ * Short-circuit AND/OR over any number of operands evaluated in adaptive order.
+ * Each operand is placed into a dedicated {@link BinaryExtractorSet} (same way as
+ * right operand of {@link LazyBooleanPredicate}) and is extracted only if
+ * operands evaluated before have not decided result.
+ * </p>
+ * <p>
+ * Pass rate and evaluation cost of each operand are collected at run time and operands
+ * are periodically reordered, so cheap operands likely to decide result go first.
+ * Older statistics decay on each reordering, so order follows changes in data.
+ * </p>
+ * <p>
+ * Result does not depend on evaluation order: it is produced if some operand decides it
+ * or if all operands are present.
+ * </p>
+ * <p>
+ * Within {@link CompositeExtractorSet} statistics are kept per plan node and shared by all
+ * extraction contexts (threads), current order is visible in plan dump.
+ * </p>
+ */
+public class AdaptiveBooleanPredicate extends AbstractCompositeExtractor<Boolean> implements StatefulCompositeExtractor<Boolean> {
+
+	private static final long serialVersionUID = 20140320L;
+
+	/** Operands are reordered each time this number of evaluations is done */
+	static final int REORDER_INTERVAL = 256;
+
+	/** Evaluation cost is measured for one of this number of evaluations */
+	static final int TIMING_INTERVAL = 8;
+
+	/**
+	 * @param operands - extractors producing {@link Boolean} values
+	 */
+	public static AdaptiveBooleanPredicate and(BinaryExtractor<?>... operands) {
+		return new AdaptiveBooleanPredicate(BooleanBinaryPredicate.AND, operands);
+	}
+
+	/**
+	 * @param operands - extractors producing {@link Boolean} values
+	 */
+	public static AdaptiveBooleanPredicate or(BinaryExtractor<?>... operands) {
+		return new AdaptiveBooleanPredicate(BooleanBinaryPredicate.OR, operands);
+	}
+
+	private Op op;
+	private BinaryExtractor<?>[] operands;
+
+	// used by composers created outside of CompositeExtractorSet
+	private transient volatile Statistics defaultState;
+
+	/**
+	 * @deprecated left public for reflection based serialization
+	 */
+	public AdaptiveBooleanPredicate() {
+	}
+
+	/**
+	 * Operands are typed by wildcard to keep varargs array reifiable (no generic array creation on Java 6).
+	 * @param operands - extractors producing {@link Boolean} values
+	 */
+	public AdaptiveBooleanPredicate(Op op, BinaryExtractor<?>... operands) {
+		if (op != BooleanBinaryPredicate.AND && op != BooleanBinaryPredicate.OR) {
+			throw new IllegalArgumentException("Operation " + op + " cannot be short-circuited");
+		}
+		if (operands.length == 0) {
+			throw new IllegalArgumentException("At least one operand is required");
+		}
+		this.op = op;
+		this.operands = operands.clone();
+	}
+
+	@Override
+	public Object getOperationToken() {
+		return op;
+	}
+
+	@Override
+	public List<BinaryExtractor<?>> getSubExtractors() {
+		List<BinaryExtractor<?>> list = new ArrayList<BinaryExtractor<?>>(operands.length);
+		for(BinaryExtractor<?> operand: operands) {
+			list.add(new LazyExtractor(operand));
+		}
+		return list;
+	}
+
+	@Override
+	public Object newNodeState() {
+		return new Statistics(op, operands.length);
+	}
+
+	@Override
+	public ValueComposer newComposer() {
+		Statistics state = defaultState;
+		if (state == null) {
+			// races are harmless, some statistics may be lost
+			defaultState = state = new Statistics(op, operands.length);
+		}
+		return newComposer(state);
+	}
+
+	@Override
+	public ValueComposer newComposer(Object nodeState) {
+		return new AdaptiveComposer((Statistics) nodeState);
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((op == null) ? 0 : op.hashCode());
+		result = prime * result + Arrays.hashCode(operands);
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		AdaptiveBooleanPredicate other = (AdaptiveBooleanPredicate) obj;
+		if (op != other.op)
+			return false;
+		if (!Arrays.equals(operands, other.operands))
+			return false;
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ADAPTIVE_").append(op).append("(");
+		for(int i = 0; i != operands.length; ++i) {
+			if (i > 0) {
+				sb.append(", ");
+			}
+			sb.append(operands[i]);
+		}
+		sb.append(")");
+		return sb.toString();
+	}
+
+	private class AdaptiveComposer implements ResettableComposer {
+
+		private final Statistics stats;
+		private final LazyExtractor.Lazy[] inputs;
+		private int count;
+
+		AdaptiveComposer(Statistics stats) {
+			this.stats = stats;
+			this.inputs = new LazyExtractor.Lazy[operands.length];
+		}
+
+		@Override
+		public void push(int id, Object part) {
+			if (id < 0 || id >= inputs.length) {
+				throw new IndexOutOfBoundsException("Param index " + id + " is out of bounds");
+			}
+			if (inputs[id] != null) {
+				throw new IllegalArgumentException("Single value is expected");
+			}
+			inputs[id] = (LazyExtractor.Lazy) part;
+			++count;
+		}
+
+		@Override
+		public void compose(ScalarResultReceiver receiver) {
+			if (count != inputs.length) {
+				return;
+			}
+			boolean decisive = stats.decisive;
+			boolean complete = true;
+			long run = stats.runs.getAndIncrement();
+			boolean timing = run % TIMING_INTERVAL == 0;
+			for(int n: stats.order) {
+				long start = timing ? System.nanoTime() : 0;
+				boolean present = inputs[n].calculate() && inputs[n].get() != null;
+				long time = timing ? System.nanoTime() - start : -1;
+				if (present) {
+					boolean value = ((Boolean)inputs[n].get()).booleanValue();
+					stats.record(n, value, time);
+					if (value == decisive) {
+						receiver.push(value);
+						complete = false;
+						break;
+					}
+				}
+				else {
+					complete = false;
+				}
+			}
+			if (complete) {
+				receiver.push(!decisive);
+			}
+			if (run % REORDER_INTERVAL == REORDER_INTERVAL - 1) {
+				stats.reorder();
+			}
+		}
+
+		@Override
+		public void reset() {
+			Arrays.fill(inputs, null);
+			count = 0;
+		}
+	}
+
+	/**
+	 * Run time statistics and current evaluation order of operands.
+	 * Counters are updated without locking, so under concurrent use statistics
+	 * are approximate, but order is always a valid permutation.
+	 */
+	static class Statistics {
+
+		final Op op;
+		// AND is decided by false, OR is decided by true
+		final boolean decisive;
+		final AtomicLong runs = new AtomicLong();
+
+		private final AtomicLongArray evaluated;
+		private final AtomicLongArray passed;
+		private final AtomicLongArray timed;
+		private final AtomicLongArray cost;
+
+		volatile int[] order;
+
+		Statistics(Op op, int size) {
+			this.op = op;
+			this.decisive = op == BooleanBinaryPredicate.OR;
+			evaluated = new AtomicLongArray(size);
+			passed = new AtomicLongArray(size);
+			timed = new AtomicLongArray(size);
+			cost = new AtomicLongArray(size);
+			int[] o = new int[size];
+			for(int i = 0; i != size; ++i) {
+				o[i] = i;
+			}
+			order = o;
+		}
+
+		void record(int n, boolean value, long time) {
+			evaluated.incrementAndGet(n);
+			if (value) {
+				passed.incrementAndGet(n);
+			}
+			if (time >= 0) {
+				timed.incrementAndGet(n);
+				cost.addAndGet(n, time);
+			}
+		}
+
+		/**
+		 * @return average cost of evaluation in nanoseconds, 0 if unknown
+		 */
+		double getCost(int n) {
+			long t = timed.get(n);
+			return t == 0 ? 0 : ((double)cost.get(n)) / t;
+		}
+
+		/**
+		 * @return estimated probability of operand to decide result
+		 */
+		double getDecisionRate(int n) {
+			long e = evaluated.get(n);
+			long p = passed.get(n);
+			long d = decisive ? p : e - p;
+			// Laplace smoothing, operands never evaluated are tried first
+			return (d + 1d) / (e + 2d);
+		}
+
+		/**
+		 * Sorts operands by expected cost of each decision they make.
+		 */
+		void reorder() {
+			int size = order.length;
+			final double[] rank = new double[size];
+			List<Integer> list = new ArrayList<Integer>(size);
+			for(int n: order) {
+				rank[n] = getCost(n) / getDecisionRate(n);
+				list.add(n);
+			}
+			// stable sort keeps current order for equal ranks
+			Collections.sort(list, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					return Double.compare(rank[a], rank[b]);
+				}
+			});
+			int[] o = new int[size];
+			for(int i = 0; i != size; ++i) {
+				o[i] = list.get(i);
+			}
+			order = o;
+			decay();
+		}
+
+		private void decay() {
+			for(int i = 0; i != order.length; ++i) {
+				evaluated.set(i, evaluated.get(i) / 2);
+				passed.set(i, passed.get(i) / 2);
+				timed.set(i, timed.get(i) / 2);
+				cost.set(i, cost.get(i) / 2);
+			}
+		}
+
+		@Override
+		public String toString() {
+			StringBuilder sb = new StringBuilder();
+			sb.append(op).append(" order=").append(Arrays.toString(order));
+			for(int n: order) {
+				long e = evaluated.get(n);
+				sb.append(" #").append(n);
+				sb.append(" pass=").append(e == 0 ? "?" : String.valueOf(100 * passed.get(n) / e) + "%");
+				sb.append(" cost=").append((long)getCost(n)).append("ns");
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -3,7 +3,7 @@ package org.gridkit.data.extractors.common;
 import java.util.ArrayList;
 import java.util.List;
 
-class AsIsComposer implements CompositeExtractor.ValueComposer {
+class AsIsComposer implements CompositeExtractor.ResettableComposer {
 
 	private List<Object> result = new ArrayList<Object>();
 	
@@ -23,4 +23,9 @@ class AsIsComposer implements CompositeExtractor.ValueComposer {
 			receiver.push(v);
 		}
 	}
+
+	@Override
+	public void reset() {
+		result.clear();
+	}
 }
@@ -13,6 +13,9 @@ public interface BinaryExtractorSet {
 
 	public int getSize();
 	
+	/**
+	 * After compilation set should be safe to use from multiple threads concurrently.
+	 */
 	public void compile();
 	
 	public void dump(StringBuilder builder);
@@ -38,74 +38,97 @@ public interface BinaryReader {
 	
 	public long getInt64(int off, ByteOrder order); 
 	
+	/**
+	 * Reader is immutable, it is safe to share it between threads
+	 * as long as underlying buffer is not modified.
+	 * <p>
+	 * Reader is a (buffer, offset, length) view, {@link #slice(int, int)} shares
+	 * the buffer and does not allocate new {@link ByteBuffer}s.
+	 */
 	public static class ByteBufferReader implements BinaryReader {
 		
-		private static volatile int BARRIER = 0;
-		
 		private final ByteBuffer buffer;
-		private ByteBuffer littleEndian;
+		private final int offset;
+		private final int length;
 		
 		public ByteBufferReader(ByteBuffer buffer) {
-			this.buffer = buffer.order() == ByteOrder.BIG_ENDIAN ? buffer : buffer.slice().order(ByteOrder.BIG_ENDIAN);
+			// offsets are absolute, so only big endian is used
+			this(buffer.order() == ByteOrder.BIG_ENDIAN ? buffer : buffer.duplicate().order(ByteOrder.BIG_ENDIAN), buffer.position(), buffer.remaining());
+		}
+
+		private ByteBufferReader(ByteBuffer buffer, int offset, int length) {
+			this.buffer = buffer;
+			this.offset = offset;
+			this.length = length;
+		}
+
+		private int index(int off, int size) {
+			if (off < 0 || off > length - size) {
+				throw new IndexOutOfBoundsException("Offset " + off + " (" + size + " bytes) is out of bounds, length " + length);
+			}
+			return offset + off;
 		}
 
 		@Override
 		public BinaryReader slice(int offs, int lenght) {
-			ByteBuffer buffer = this.buffer.slice();
-			buffer.position(offs);
-			buffer.limit(offs + lenght);
-			return new ByteBufferReader(buffer);
+			if (lenght < 0) {
+				throw new IndexOutOfBoundsException("Negative length " + lenght);
+			}
+			return new ByteBufferReader(buffer, index(offs, lenght), lenght);
 		}
 
 		@Override
 		public int length() {
-			return buffer.remaining();
+			return length;
 		}
 
 		@Override
 		public ByteBuffer asBuffer() {
-			return buffer.slice();
+			ByteBuffer bb = buffer.duplicate();
+			bb.limit(offset + length);
+			bb.position(offset);
+			return bb.slice();
 		}
 
 		@Override
 		public byte getByte(int off) {
-			return buffer.get(off);
+			return buffer.get(index(off, 1));
 		}
 
 		@Override
 		public char getChar(int off) {
-			return buffer.getChar(off);
+			return buffer.getChar(index(off, 2));
 		}
 
 		@Override
 		public short getInt16(int off) {
-			return buffer.getShort(off);
+			return buffer.getShort(index(off, 2));
 		}
 
 		@Override
 		public int getInt32(int off) {
-			return buffer.getInt(off);
+			return buffer.getInt(index(off, 4));
 		}
 
 		@Override
 		public long getInt64(int off) {
-			return buffer.getLong(off);
+			return buffer.getLong(index(off, 8));
 		}
 
 		@Override
 		public float getFloat32(int off) {
-			return buffer.getFloat(off);
+			return buffer.getFloat(index(off, 4));
 		}
 
 		@Override
 		public double getFloat64(int off) {
-			return buffer.getDouble(off);
+			return buffer.getDouble(index(off, 8));
 		}
 
 		@Override
 		public void getBytes(byte[] target, int off, int arrayOff, int len) {
-			ByteBuffer bb = buffer.slice();
-			bb.position(off);
+			ByteBuffer bb = buffer.duplicate();
+			bb.position(index(off, len));
 			bb.get(target, arrayOff, len);
 		}
 
@@ -115,29 +138,17 @@ public interface BinaryReader {
 				return getInt16(off);
 			}
 			else {
-				ensureLittleEndian();
-				return littleEndian.getShort(off);
+				return Short.reverseBytes(getInt16(off));
 			}
 		}
 
-		private void ensureLittleEndian() {
-			if (littleEndian == null) {
-				ByteBuffer bb = buffer.slice();
-				bb.order(ByteOrder.LITTLE_ENDIAN);
-				// I really wonder if that kind of memory barrier will ever work
-				bb.position(BARRIER);
-				littleEndian = bb;
-			}			
-		}
-
 		@Override
 		public int getInt32(int off, ByteOrder order) {
 			if (order == ByteOrder.BIG_ENDIAN) {
 				return getInt32(off);
 			}
 			else {
-				ensureLittleEndian();
-				return littleEndian.getInt(off);
+				return Integer.reverseBytes(getInt32(off));
 			}
 		}
 
@@ -147,8 +158,7 @@ public interface BinaryReader {
 				return getInt64(off);
 			}
 			else {
-				ensureLittleEndian();
-				return littleEndian.getLong(off);
+				return Long.reverseBytes(getInt64(off));
 			}
 		}
 	}
@@ -26,6 +26,11 @@ public final class Blob implements Comparable<Blob>, Serializable {
 	public Blob(byte[] data) {
 		this(ByteBuffer.wrap(data));
 	}
+
+	public Blob(byte[] data, int offset, int length) {
+		this.data = Arrays.copyOfRange(data, offset, offset + length);
+		hash = calcHash();
+	}
 	
 	private int calcHash() {
 		CRC32 crc = new CRC32();
@@ -13,6 +13,20 @@ public class BooleanBinaryPredicate extends AbstractBinaryFunction<Boolean, Bool
 	public static Op AND = Op.AND;
 	public static Op OR = Op.OR;
 	public static Op XOR = Op.XOR;
+
+	/**
+	 * Short-circuit AND, right operand is extracted only if left one is <code>true</code>.
+	 */
+	public static BooleanBinaryPredicate lazyAnd(BinaryExtractor<Boolean> left, BinaryExtractor<Boolean> right) {
+		return new LazyBooleanPredicate(AND, left, right);
+	}
+
+	/**
+	 * Short-circuit OR, right operand is extracted only if left one is <code>false</code>.
+	 */
+	public static BooleanBinaryPredicate lazyOr(BinaryExtractor<Boolean> left, BinaryExtractor<Boolean> right) {
+		return new LazyBooleanPredicate(OR, left, right);
+	}
 	
 	private Op op;
 	
@@ -33,6 +47,10 @@ public class BooleanBinaryPredicate extends AbstractBinaryFunction<Boolean, Bool
 		return op;
 	}
 
+	protected Op getOp() {
+		return op;
+	}
+
 	@Override
 	protected Boolean evaluate(Boolean left, Boolean right) {
 		switch(op) {
@@ -43,6 +61,30 @@ public class BooleanBinaryPredicate extends AbstractBinaryFunction<Boolean, Bool
 		throw new IllegalArgumentException("Unknown binary operation " + op);
 	}
 
+	/**
+	 * @return same operation with operands swapped
+	 */
+	BooleanBinaryPredicate mirror() {
+		return new BooleanBinaryPredicate(op, getRight(), getLeft());
+	}
+
+	/**
+	 * Simplifies operation with one constant operand.
+	 * Result should be equivalent including the case of missing other operand.
+	 * 
+	 * @param leftConst - <code>true</code> if left operand is constant, <code>false</code> if right one
+	 * @return equivalent extractor or <code>null</code> if operation cannot be simplified
+	 */
+	BinaryExtractor<Boolean> reduce(boolean leftConst, boolean value) {
+		BinaryExtractor<Boolean> other = leftConst ? getRight() : getLeft();
+		switch(op) {
+			case AND: return value ? other : null;
+			case OR: return value ? null : other;
+			case XOR: return value ? new NotTransformer(other) : other;
+		}
+		return null;
+	}
+
 	@Override
 	protected String getDescription() {
 		return op.toString();
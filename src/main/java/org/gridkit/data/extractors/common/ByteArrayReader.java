@@ -0,0 +1,162 @@
+package org.gridkit.data.extractors.common;
+
+import static org.gridkit.data.extractors.common.UnsafeAccess.BYTE_ARRAY_OFFSET;
+import static org.gridkit.data.extractors.common.UnsafeAccess.UNSAFE;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link BinaryReader} over a byte array range.
+ * Multibyte values are loaded by single (possibly unaligned) memory access
+ * if {@link sun.misc.Unsafe} is available, otherwise they are assembled from bytes.
+ * <p>
+ * Reader is immutable and could be shared between threads as long as array is not modified.
+ */
+@SuppressWarnings("restriction")
+public class ByteArrayReader implements BinaryReader {
+
+	private final byte[] data;
+	private final int offset;
+	private final int length;
+
+	public ByteArrayReader(byte[] data) {
+		this(data, 0, data.length);
+	}
+
+	public ByteArrayReader(byte[] data, int offset, int length) {
+		if (offset < 0 || length < 0 || offset + length > data.length) {
+			throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + length) + ") is out of array bounds");
+		}
+		this.data = data;
+		this.offset = offset;
+		this.length = length;
+	}
+
+	private int index(int off, int size) {
+		if (off < 0 || off > length - size) {
+			throw new IndexOutOfBoundsException("Offset " + off + " (" + size + " bytes) is out of bounds, length " + length);
+		}
+		return offset + off;
+	}
+
+	@Override
+	public BinaryReader slice(int offs, int length) {
+		if (length < 0) {
+			throw new IndexOutOfBoundsException("Negative length " + length);
+		}
+		return new ByteArrayReader(data, index(offs, length), length);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public ByteBuffer asBuffer() {
+		return ByteBuffer.wrap(data, offset, length).slice();
+	}
+
+	@Override
+	public byte getByte(int off) {
+		return data[index(off, 1)];
+	}
+
+	@Override
+	public char getChar(int off) {
+		return (char) getInt16(off);
+	}
+
+	@Override
+	public short getInt16(int off) {
+		int n = index(off, 2);
+		if (UNSAFE != null) {
+			return UnsafeAccess.toBigEndian(UNSAFE.getShort(data, BYTE_ARRAY_OFFSET + n));
+		}
+		else {
+			return (short) ((data[n] << 8) | (data[n + 1] & 0xFF));
+		}
+	}
+
+	@Override
+	public int getInt32(int off) {
+		int n = index(off, 4);
+		if (UNSAFE != null) {
+			return UnsafeAccess.toBigEndian(UNSAFE.getInt(data, BYTE_ARRAY_OFFSET + n));
+		}
+		else {
+			return (data[n] << 24) | ((data[n + 1] & 0xFF) << 16) | ((data[n + 2] & 0xFF) << 8) | (data[n + 3] & 0xFF);
+		}
+	}
+
+	@Override
+	public long getInt64(int off) {
+		int n = index(off, 8);
+		if (UNSAFE != null) {
+			return UnsafeAccess.toBigEndian(UNSAFE.getLong(data, BYTE_ARRAY_OFFSET + n));
+		}
+		else {
+			return (((long) getInt32(off)) << 32) | (getInt32(off + 4) & 0xFFFFFFFFl);
+		}
+	}
+
+	@Override
+	public float getFloat32(int off) {
+		return Float.intBitsToFloat(getInt32(off));
+	}
+
+	@Override
+	public double getFloat64(int off) {
+		return Double.longBitsToDouble(getInt64(off));
+	}
+
+	@Override
+	public void getBytes(byte[] target, int off, int arrayOff, int len) {
+		System.arraycopy(data, index(off, len), target, arrayOff, len);
+	}
+
+	@Override
+	public short getInt16(int off, ByteOrder order) {
+		if (order == ByteOrder.BIG_ENDIAN) {
+			return getInt16(off);
+		}
+		else if (UNSAFE != null) {
+			return UnsafeAccess.toLittleEndian(UNSAFE.getShort(data, BYTE_ARRAY_OFFSET + index(off, 2)));
+		}
+		else {
+			return Short.reverseBytes(getInt16(off));
+		}
+	}
+
+	@Override
+	public int getInt32(int off, ByteOrder order) {
+		if (order == ByteOrder.BIG_ENDIAN) {
+			return getInt32(off);
+		}
+		else if (UNSAFE != null) {
+			return UnsafeAccess.toLittleEndian(UNSAFE.getInt(data, BYTE_ARRAY_OFFSET + index(off, 4)));
+		}
+		else {
+			return Integer.reverseBytes(getInt32(off));
+		}
+	}
+
+	@Override
+	public long getInt64(int off, ByteOrder order) {
+		if (order == ByteOrder.BIG_ENDIAN) {
+			return getInt64(off);
+		}
+		else if (UNSAFE != null) {
+			return UnsafeAccess.toLittleEndian(UNSAFE.getLong(data, BYTE_ARRAY_OFFSET + index(off, 8)));
+		}
+		else {
+			return Long.reverseBytes(getInt64(off));
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "ByteArrayReader[" + offset + ", " + length + "]";
+	}
+}
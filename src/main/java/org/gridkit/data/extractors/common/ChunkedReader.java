@@ -0,0 +1,261 @@
+package org.gridkit.data.extractors.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * {@link BinaryReader} presenting sequence of chunks as single continuous range, chunks are not copied.
+ * <p>
+ * Values contained in single chunk are read by chunk's reader, values crossing chunk boundary are
+ * assembled byte by byte. {@link #slice(int, int)} within single chunk returns chunk's own slice,
+ * {@link #asBuffer()} has to copy data if range spans several chunks.
+ * <p>
+ * Reader is immutable, it is safe to share it between threads
+ * as long as underlying buffers are not modified.
+ */
+public class ChunkedReader implements BinaryReader {
+
+	private static final byte[] EMPTY = new byte[0];
+
+	private final BinaryReader[] chunks;
+	// starts[i] is offset of chunk i, starts[chunks.length] is total length
+	private final int[] starts;
+
+	public ChunkedReader(ByteBuffer... chunks) {
+		this(Arrays.asList(chunks));
+	}
+
+	/**
+	 * Remaining bytes of each buffer are used, buffer positions are not changed.
+	 */
+	public ChunkedReader(List<ByteBuffer> chunks) {
+		this(toReaders(chunks));
+	}
+
+	public ChunkedReader(BinaryReader... chunks) {
+		List<BinaryReader> list = new ArrayList<BinaryReader>(chunks.length);
+		for(BinaryReader chunk: chunks) {
+			if (chunk.length() > 0) {
+				list.add(chunk);
+			}
+		}
+		this.chunks = list.toArray(new BinaryReader[list.size()]);
+		this.starts = new int[this.chunks.length + 1];
+		long total = 0;
+		for(int i = 0; i != this.chunks.length; ++i) {
+			starts[i] = (int)total;
+			total += this.chunks[i].length();
+		}
+		if (total > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Total length of chunks exceeds 2GiB");
+		}
+		starts[this.chunks.length] = (int)total;
+	}
+
+	private static BinaryReader[] toReaders(List<ByteBuffer> buffers) {
+		BinaryReader[] readers = new BinaryReader[buffers.size()];
+		for(int i = 0; i != readers.length; ++i) {
+			ByteBuffer bb = buffers.get(i);
+			if (bb.hasArray()) {
+				readers[i] = new ByteArrayReader(bb.array(), bb.arrayOffset() + bb.position(), bb.remaining());
+			}
+			else if (bb.isDirect() && DirectMemoryReader.isSupported()) {
+				readers[i] = new DirectMemoryReader(bb);
+			}
+			else {
+				readers[i] = new ByteBufferReader(bb);
+			}
+		}
+		return readers;
+	}
+
+	/**
+	 * @return number of non empty chunks
+	 */
+	public int getChunkCount() {
+		return chunks.length;
+	}
+
+	private void checkRange(int off, int size) {
+		if (off < 0 || size < 0 || off > length() - size) {
+			throw new IndexOutOfBoundsException("Offset " + off + " (" + size + " bytes) is out of bounds, length " + length());
+		}
+	}
+
+	/**
+	 * @return index of chunk containing byte at offset
+	 */
+	private int chunkAt(int off) {
+		int n = Arrays.binarySearch(starts, 0, chunks.length, off);
+		return n >= 0 ? n : -n - 2;
+	}
+
+	@Override
+	public BinaryReader slice(int offs, int length) {
+		checkRange(offs, length);
+		if (length == 0) {
+			return new ByteArrayReader(EMPTY);
+		}
+		int c = chunkAt(offs);
+		int end = offs + length;
+		if (end <= starts[c + 1]) {
+			return chunks[c].slice(offs - starts[c], length);
+		}
+		List<BinaryReader> parts = new ArrayList<BinaryReader>();
+		for(int i = c; i < chunks.length && starts[i] < end; ++i) {
+			int from = Math.max(offs, starts[i]) - starts[i];
+			int to = Math.min(end, starts[i + 1]) - starts[i];
+			parts.add(chunks[i].slice(from, to - from));
+		}
+		return new ChunkedReader(parts.toArray(new BinaryReader[parts.size()]));
+	}
+
+	@Override
+	public int length() {
+		return starts[chunks.length];
+	}
+
+	@Override
+	public ByteBuffer asBuffer() {
+		if (chunks.length == 1) {
+			return chunks[0].asBuffer();
+		}
+		byte[] data = new byte[length()];
+		getBytes(data, 0, 0, data.length);
+		return ByteBuffer.wrap(data);
+	}
+
+	@Override
+	public byte getByte(int off) {
+		checkRange(off, 1);
+		int c = chunkAt(off);
+		return chunks[c].getByte(off - starts[c]);
+	}
+
+	@Override
+	public char getChar(int off) {
+		return (char) getInt16(off);
+	}
+
+	@Override
+	public short getInt16(int off) {
+		checkRange(off, 2);
+		int c = chunkAt(off);
+		if (off + 2 <= starts[c + 1]) {
+			return chunks[c].getInt16(off - starts[c]);
+		}
+		else {
+			return (short) assemble(c, off, 2);
+		}
+	}
+
+	@Override
+	public int getInt32(int off) {
+		checkRange(off, 4);
+		int c = chunkAt(off);
+		if (off + 4 <= starts[c + 1]) {
+			return chunks[c].getInt32(off - starts[c]);
+		}
+		else {
+			return (int) assemble(c, off, 4);
+		}
+	}
+
+	@Override
+	public long getInt64(int off) {
+		checkRange(off, 8);
+		int c = chunkAt(off);
+		if (off + 8 <= starts[c + 1]) {
+			return chunks[c].getInt64(off - starts[c]);
+		}
+		else {
+			return assemble(c, off, 8);
+		}
+	}
+
+	/**
+	 * Assembles big endian value crossing chunk boundary.
+	 */
+	private long assemble(int c, int off, int size) {
+		long v = 0;
+		int chunkEnd = starts[c + 1];
+		for(int i = 0; i != size; ++i) {
+			int p = off + i;
+			if (p == chunkEnd) {
+				++c;
+				chunkEnd = starts[c + 1];
+			}
+			v = (v << 8) | (chunks[c].getByte(p - starts[c]) & 0xFF);
+		}
+		return v;
+	}
+
+	@Override
+	public float getFloat32(int off) {
+		return Float.intBitsToFloat(getInt32(off));
+	}
+
+	@Override
+	public double getFloat64(int off) {
+		return Double.longBitsToDouble(getInt64(off));
+	}
+
+	@Override
+	public void getBytes(byte[] target, int off, int arrayOff, int len) {
+		checkRange(off, len);
+		if (len == 0) {
+			return;
+		}
+		int c = chunkAt(off);
+		while(len > 0) {
+			int co = off - starts[c];
+			int n = Math.min(len, starts[c + 1] - off);
+			chunks[c].getBytes(target, co, arrayOff, n);
+			off += n;
+			arrayOff += n;
+			len -= n;
+			++c;
+		}
+	}
+
+	@Override
+	public short getInt16(int off, ByteOrder order) {
+		checkRange(off, 2);
+		int c = chunkAt(off);
+		if (off + 2 <= starts[c + 1]) {
+			return chunks[c].getInt16(off - starts[c], order);
+		}
+		short v = (short) assemble(c, off, 2);
+		return order == ByteOrder.BIG_ENDIAN ? v : Short.reverseBytes(v);
+	}
+
+	@Override
+	public int getInt32(int off, ByteOrder order) {
+		checkRange(off, 4);
+		int c = chunkAt(off);
+		if (off + 4 <= starts[c + 1]) {
+			return chunks[c].getInt32(off - starts[c], order);
+		}
+		int v = (int) assemble(c, off, 4);
+		return order == ByteOrder.BIG_ENDIAN ? v : Integer.reverseBytes(v);
+	}
+
+	@Override
+	public long getInt64(int off, ByteOrder order) {
+		checkRange(off, 8);
+		int c = chunkAt(off);
+		if (off + 8 <= starts[c + 1]) {
+			return chunks[c].getInt64(off - starts[c], order);
+		}
+		long v = assemble(c, off, 8);
+		return order == ByteOrder.BIG_ENDIAN ? v : Long.reverseBytes(v);
+	}
+
+	@Override
+	public String toString() {
+		return "ChunkedReader[" + chunks.length + " chunks, " + length() + "]";
+	}
+}
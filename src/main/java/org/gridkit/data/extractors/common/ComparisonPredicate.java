@@ -49,7 +49,7 @@ public class ComparisonPredicate extends AbstractCompositeExtractor<Boolean> imp
 
 	@Override
 	public ValueComposer newComposer() {
-		return new ValueComposer() {
+		return new ResettableComposer() {
 			
 			private Object left;
 			private boolean hasLeft;
@@ -76,9 +76,20 @@ public class ComparisonPredicate extends AbstractCompositeExtractor<Boolean> imp
 			public void compose(ScalarResultReceiver receiver) {
 				if (hasLeft && hasRight) {
 					if (comparator == null) {
-						if (left instanceof Comparable && right instanceof Comparable) {
+						if ((predicateOp == Op.EQ || predicateOp == Op.NE) && (left instanceof Utf8String || right instanceof Utf8String)
+								&& left instanceof CharSequence && right instanceof CharSequence) {
+							// equality of UTF-8 view does not require ordering
+							boolean eq = left instanceof Utf8String
+									? ((Utf8String)left).contentEquals((CharSequence)right)
+									: ((Utf8String)right).contentEquals((CharSequence)left);
+							receiver.push(eq == (predicateOp == Op.EQ));
+						}
+						else if (left instanceof Comparable && right instanceof Comparable) {
 							try {
-								int n = ((Comparable)left).compareTo(right);
+								// String.compareTo() is not aware of UTF-8 views
+								int n = right instanceof Utf8String && !(left instanceof Utf8String)
+										? -((Comparable)right).compareTo(left)
+										: ((Comparable)left).compareTo(right);
 								interpret(receiver, n);
 							} catch (Exception e) {
 								// ignore errors
@@ -96,6 +107,14 @@ public class ComparisonPredicate extends AbstractCompositeExtractor<Boolean> imp
 				}
 			}
 
+			@Override
+			public void reset() {
+				left = null;
+				hasLeft = false;
+				right = null;
+				hasRight = false;
+			}
+
 			protected void interpret(ScalarResultReceiver receiver, int n) {
 				switch(predicateOp) {
 				case EQ: receiver.push(n == 0); break;
@@ -111,6 +130,21 @@ public class ComparisonPredicate extends AbstractCompositeExtractor<Boolean> imp
 		};
 	}
 
+	/**
+	 * @return equivalent predicate with operands swapped
+	 */
+	ComparisonPredicate mirror() {
+		Op op;
+		switch(predicateOp) {
+		case GT: op = LT; break;
+		case GE: op = LE; break;
+		case LT: op = GT; break;
+		case LE: op = GE; break;
+		default: op = predicateOp;
+		}
+		return new ComparisonPredicate(op, right, left, comparator);
+	}
+
 	@Override
 	public int hashCode() {
 		final int prime = 31;
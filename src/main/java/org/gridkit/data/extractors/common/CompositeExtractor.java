@@ -14,11 +14,35 @@ public interface CompositeExtractor<V> extends BinaryExtractor<V> {
 	
 	public ValueComposer newComposer();
 	
+	/**
+	 * Composer is invoked only if at least one of its inputs has been pushed,
+	 * unless it is an {@link EagerComposer} or has no inputs at all.
+	 */
 	interface ValueComposer extends VectorResultReceiver {		
 		public void compose(ScalarResultReceiver receiver);		
 	}	
+
+	/**
+	 * Composer producing result even if none of its inputs were present
+	 * (e.g. empty collection).
+	 */
+	interface EagerComposer extends ValueComposer {
+	}
+
+	/**
+	 * Composer which could be reused for next extraction.
+	 * Non resettable composers are recreated for each extraction.
+	 */
+	interface ResettableComposer extends ValueComposer {
+		
+		/**
+		 * Returns composer to the state right after creation.
+		 */
+		public void reset();
+		
+	}
 		
-	public static abstract class SingleArgumentComposer implements ValueComposer {
+	public static abstract class SingleArgumentComposer implements ResettableComposer {
 
 		protected List<Object> inputs = new ArrayList<Object>(1);
 		
@@ -40,5 +64,10 @@ public interface CompositeExtractor<V> extends BinaryExtractor<V> {
 		}
 
 		protected abstract void processInput(Object input, ScalarResultReceiver receiver);
+
+		@Override
+		public void reset() {
+			inputs.clear();
+		}
 	}
 }
@@ -3,14 +3,15 @@ package org.gridkit.data.extractors.common;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
+import org.gridkit.data.extractors.common.CompositeExtractor.EagerComposer;
+import org.gridkit.data.extractors.common.CompositeExtractor.ResettableComposer;
 import org.gridkit.data.extractors.common.CompositeExtractor.ValueComposer;
 
-public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
+public class CompositeExtractorSet implements ContextualExtractorSet<CompositeExtractorSet.ExtractionContext>, Serializable {
 
 	private static final long serialVersionUID = 20130127L;
 	
@@ -24,12 +25,15 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 	private int nBatchResult = -2;
 	
 	private Map<Integer, ValueLink> links = new HashMap<Integer, ValueLink>();
+	// values of constant nodes
+	private Map<Integer, Object> constants = new HashMap<Integer, Object>();
 	
-	private boolean compiled;
+	// published once by compile(), immutable afterwards
+	private volatile Plan plan;
 
 	@Override
 	public int addExtractor(BinaryExtractor<?> extractor) {
-		if (compiled) {
+		if (plan != null) {
 			throw new IllegalStateException("Cannot add extractor to a compiled set");
 		}
 		int id = addExtractor(-1, extractor);
@@ -61,8 +65,14 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 			for(BinaryExtractor<?> e: el) {
 				in[n++] = addExtractor(sourceId, e);
 			}
+			BinaryExtractor<?> reduced = reduce(ce, in);
+			if (reduced != null) {
+				// operand nodes already added are reused
+				return addExtractor(sourceId, reduced);
+			}
+			ce = canonicalize(ce, in);
 			CompositionToken ct = new CompositionToken();
-			ct.extractorType = extractor.getClass();
+			ct.extractorType = ce.getClass();
 			ct.inArgs = in;
 			ct.operationToken = ce.getOperationToken();
 			
@@ -74,9 +84,13 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 				int id = nodes.size();
 				Composition c = new Composition(ce);
 				c.id = id;
+				c.inputCount = in.length;
 				c.outIndex = id;
 				compositionIndex.put(ct, id);
 				nodes.add(c);
+				if (ce instanceof ConstExtractor) {
+					constants.put(id, ((ConstExtractor<?>)ce).getValue());
+				}
 				for(int i = 0; i != in.length; ++i) {
 					addLink(in[i], new CompositionLink(id, i));
 				}
@@ -107,6 +121,93 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 		}
 	}
 
+	/**
+	 * Folds composition with constant inputs into a constant and 
+	 * simplifies boolean operations with one constant operand.
+	 * 
+	 * @return equivalent extractor or <code>null</code>
+	 */
+	private BinaryExtractor<?> reduce(CompositeExtractor<?> ce, int[] in) {
+		if (in.length == 0) {
+			return null;
+		}
+		boolean allConst = true;
+		for(int i: in) {
+			if (!constants.containsKey(i)) {
+				allConst = false;
+				break;
+			}
+		}
+		if (allConst) {
+			return evaluate(ce, in);
+		}
+		if (ce instanceof BooleanBinaryPredicate && in.length == 2) {
+			BooleanBinaryPredicate bp = (BooleanBinaryPredicate) ce;
+			Object l = constants.get(in[0]);
+			Object r = constants.get(in[1]);
+			if (l instanceof Boolean) {
+				return bp.reduce(true, (Boolean)l);
+			}
+			else if (r instanceof Boolean) {
+				return bp.reduce(false, (Boolean)r);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Orders operands of commutative operations (and comparisons, which are mirrored)
+	 * by node id, so same operation written in different order shares a node.
+	 * 
+	 * @return extractor matching reordered inputs
+	 */
+	private CompositeExtractor<?> canonicalize(CompositeExtractor<?> ce, int[] in) {
+		if (in.length == 2 && in[0] > in[1]) {
+			CompositeExtractor<?> mirror = null;
+			if (ce.getClass() == EqualsPredicate.class) {
+				mirror = ((EqualsPredicate)ce).mirror();
+			}
+			else if (ce.getClass() == BooleanBinaryPredicate.class) {
+				mirror = ((BooleanBinaryPredicate)ce).mirror();
+			}
+			else if (ce.getClass() == ComparisonPredicate.class) {
+				mirror = ((ComparisonPredicate)ce).mirror();
+			}
+			if (mirror != null) {
+				int x = in[0];
+				in[0] = in[1];
+				in[1] = x;
+				return mirror;
+			}
+		}
+		return ce;
+	}
+
+	private ConstExtractor<?> evaluate(CompositeExtractor<?> ce, int[] in) {
+		ValueComposer composer = ce.newComposer();
+		if (composer instanceof EagerComposer) {
+			// result may be mutable (e.g. collection), so it cannot be shared
+			return null;
+		}
+		final List<Object> result = new ArrayList<Object>(1);
+		try {
+			for(int i = 0; i != in.length; ++i) {
+				composer.push(i, constants.get(in[i]));
+			}
+			composer.compose(new ScalarResultReceiver() {
+				@Override
+				public void push(Object part) {
+					result.add(part);
+				}
+			});
+		}
+		catch(RuntimeException e) {
+			// leave error to extraction time
+			return null;
+		}
+		return result.size() == 1 ? ConstExtractor.newConst(result.get(0)) : null;
+	}
+
 	private int addToBatch(BinaryExtractor<?> extractor, Batch batch) {
 		int x = batch.extractorSet.addExtractor(extractor);
 		batch.extractors = add(batch.extractors, extractor);
@@ -145,18 +246,79 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 		return outs.size();
 	}
 
+	/**
+	 * Compiled set is immutable and safe to be used by multiple threads concurrently,
+	 * each thread should use its own {@link ExtractionContext} though.
+	 */
 	@Override
-	public void compile() {
-		if (!compiled) { 
-			compiled = true;
+	public synchronized void compile() {
+		if (plan == null) { 
 			for(ProcessingNode node: nodes) {
 				node.compile();
 			}
+			plan = lowerLinks();
+		}
+	}
+
+	/**
+	 * Replaces link graph with flat fan-out tables indexed by value number. 
+	 */
+	private Plan lowerLinks() {
+		List<ValueLink> values = new ArrayList<ValueLink>();
+		values.add(links.get(-1));
+		for(ProcessingNode node: nodes) {
+			if (node instanceof Batch) {
+				Batch batch = (Batch) node;
+				batch.outValues = new int[batch.outLinks.length];
+				for(int i = 0; i != batch.outLinks.length; ++i) {
+					batch.outValues[i] = values.size();
+					values.add(batch.outLinks[i]);
+				}
+			}
+			else {
+				Composition c = (Composition) node;
+				c.outValue = values.size();
+				values.add(c.outLink);
+			}
+		}
+		int[][] fanNode = new int[values.size()][];
+		int[][] fanArg = new int[values.size()][];
+		List<ValueLink> targets = new ArrayList<ValueLink>();
+		for(int v = 0; v != values.size(); ++v) {
+			targets.clear();
+			flatten(values.get(v), targets);
+			int[] fn = new int[targets.size()];
+			int[] fa = new int[targets.size()];
+			for(int i = 0; i != fn.length; ++i) {
+				ValueLink link = targets.get(i);
+				if (link instanceof ResultVectorLink) {
+					fn[i] = -1;
+					fa[i] = ((ResultVectorLink)link).outIndex;
+				}
+				else {
+					CompositionLink cl = (CompositionLink) link;
+					fn[i] = cl.id;
+					fa[i] = cl.argIndex;
+				}
+			}
+			fanNode[v] = fn;
+			fanArg[v] = fa;
+		}
+		return new Plan(nodes.toArray(new ProcessingNode[nodes.size()]), fanNode, fanArg);
+	}
+
+	private static void flatten(ValueLink link, List<ValueLink> targets) {
+		if (link instanceof ForkLink) {
+			flatten(((ForkLink)link).a, targets);
+			flatten(((ForkLink)link).b, targets);
+		}
+		else if (link != null) {
+			targets.add(link);
 		}
 	}
 	
 	public void dump(StringBuilder builder) {
-		if (!compiled) {
+		if (plan == null) {
 			throw new IllegalStateException("Should be compiled");
 		}
 		builder.append("<composite>\n");
@@ -182,6 +344,9 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 			Composition c = (Composition)node;
 			builder.append("<composition id=\"C" + c.id + "\">\n");
 			builder.append("<extractor>").append(c.extractor).append("</extractor>\n");
+			if (c.state != null) {
+				builder.append("<state>").append(c.state).append("</state>\n");
+			}
 			dumpLink(builder, Integer.MIN_VALUE, c.outLink);
 			builder.append("</composition>\n");
 		}
@@ -218,38 +383,131 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 
 	@Override
 	public void extractAll(Object source, VectorResultReceiver resultReceiver) {
-		if (!compiled) {
+		extractAll(source, resultReceiver, newContext());
+	}
+
+	@Override
+	public void extractAll(Object source, VectorResultReceiver resultReceiver, ExtractionContext context) {
+		if (context.getExtractorSet() != this) {
+			throw new IllegalArgumentException("Context belongs to other extractor set");
+		}
+		if (plan == null) {
 			throw new IllegalStateException("Extractor set is not compiled");
 		}
-		ExtractionContext context = newContext(resultReceiver);
-		new LinkRef(links.get(-1), context).push(source);
+		context.reset(resultReceiver);
+		context.route(0, source);
 		
-		for(Composer composer: context.composers) {
-			composer.compose(context);
+		// nodes are topologically ordered, so node could receive input 
+		// only from nodes with lower index, which are already composed
+		long[] pending = context.pending;
+		long[] composed = context.composed;
+		Composer[] composers = context.composers;
+		for(int w = 0; w != pending.length; ++w) {
+			long word;
+			while((word = pending[w]) != 0) {
+				long bit = word & -word;
+				pending[w] = word ^ bit;
+				composed[w] |= bit;
+				composers[(w << 6) + Long.numberOfTrailingZeros(bit)].compose();
+			}
 		}
+		context.resultVector = null;
 	}
 	
-	private ExtractionContext newContext(VectorResultReceiver resultVector) {
-		if (nodes.isEmpty()) {
-			return new ExtractionContext(resultVector, Collections.<Composer>emptyList());
+	@Override
+	public ExtractionContext newContext() {
+		Plan plan = this.plan;
+		if (plan == null) {
+			throw new IllegalStateException("Extractor set is not compiled");
 		}
-		else {
-			List<Composer> composers = new ArrayList<Composer>(nodes.size());
-			for(ProcessingNode c: nodes) {
-				composers.add(c.newComposer());
+		ProcessingNode[] nodeTable = plan.nodeTable;
+		ExtractionContext context = new ExtractionContext(plan);
+		for(int i = 0; i != nodeTable.length; ++i) {
+			context.composers[i] = nodeTable[i].newComposer(context);
+			if (context.composers[i].isEager()) {
+				context.eager[i >> 6] |= 1l << i;
 			}
-			return new ExtractionContext(resultVector, composers);
 		}
+		return context;
 	}
 	
-	private static class ExtractionContext {
+	/**
+	 * Per extraction state of {@link CompositeExtractorSet}.
+	 * Only nodes which have received input (or produce result without input) are composed
+	 * and reset afterwards, so dead branches of extractor tree cost nothing.
+	 * Resetting context does not allocate
+	 * as long as all composers are {@link CompositeExtractor.ResettableComposer resettable}.
+	 */
+	public class ExtractionContext {
+		
+		private VectorResultReceiver resultVector;
+		private final int[][] fanNode;
+		private final int[][] fanArg;
+		private final Composer[] composers;
+		// node bitsets: composed regardless of input, scheduled for composition, composed by last extraction
+		private final long[] eager;
+		private final long[] pending;
+		private final long[] composed;
+		
+		private ExtractionContext(Plan plan) {
+			int nodeCount = plan.nodeTable.length;
+			this.fanNode = plan.fanNode;
+			this.fanArg = plan.fanArg;
+			this.composers = new Composer[nodeCount];
+			int words = (nodeCount + 63) >> 6;
+			this.eager = new long[words];
+			this.pending = new long[words];
+			this.composed = new long[words];
+		}
 		
-		final VectorResultReceiver resultVector;
-		final List<Composer> composers;
+		CompositeExtractorSet getExtractorSet() {
+			return CompositeExtractorSet.this;
+		}
 		
-		private ExtractionContext(VectorResultReceiver resultVector, List<Composer> composers) {
+		void reset(VectorResultReceiver resultVector) {
+			for(int w = 0; w != composed.length; ++w) {
+				long word = composed[w];
+				while(word != 0) {
+					composers[(w << 6) + Long.numberOfTrailingZeros(word)].reset();
+					word &= word - 1;
+				}
+				composed[w] = 0;
+			}
+			System.arraycopy(eager, 0, pending, 0, eager.length);
 			this.resultVector = resultVector;
-			this.composers = composers;
+		}
+		
+		void route(int value, Object part) {
+			int[] fn = fanNode[value];
+			int[] fa = fanArg[value];
+			for(int i = 0; i != fn.length; ++i) {
+				int node = fn[i];
+				if (node < 0) {
+					resultVector.push(fa[i], part);
+				}
+				else {
+					composers[node].push(fa[i], part);
+					pending[node >> 6] |= 1l << node;
+				}
+			}
+		}
+	}
+	
+	/**
+	 * Compiled plan, values are numbered densely, value 0 is source object.
+	 * Nodes are not modified after compilation, so plan could be shared between threads.
+	 */
+	private static class Plan {
+		
+		final ProcessingNode[] nodeTable;
+		// for each value: target node (or -1 for result vector) and argument (or result) index
+		final int[][] fanNode;
+		final int[][] fanArg;
+		
+		Plan(ProcessingNode[] nodeTable, int[][] fanNode, int[][] fanArg) {
+			this.nodeTable = nodeTable;
+			this.fanNode = fanNode;
+			this.fanArg = fanArg;
 		}
 	}
 	
@@ -298,7 +556,20 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 	
 	private abstract class Composer implements VectorResultReceiver {
 		
-		public abstract void compose(ExtractionContext context);
+		protected final ExtractionContext context;
+		
+		protected Composer(ExtractionContext context) {
+			this.context = context;
+		}
+
+		public abstract void compose();
+		
+		public abstract void reset();
+		
+		/**
+		 * @return <code>true</code> if composer should be invoked even if it has received no input
+		 */
+		public abstract boolean isEager();
 		
 	}
 	
@@ -308,7 +579,7 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 
 		public abstract void compile(); 
 
-		public abstract Composer newComposer();
+		public abstract Composer newComposer(ExtractionContext context);
 		
 	}
 
@@ -317,6 +588,7 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 		BinaryExtractor<?>[] extractors;
 		Int2Int outIndexes = new Int2Int(); 
 		ValueLink[] outLinks;
+		int[] outValues;
 		BinaryExtractorSet extractorSet;
 
 		@Override
@@ -329,8 +601,8 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 		}
 
 		@Override
-		public Composer newComposer() {
-			return new ExtractorSetComposer();
+		public Composer newComposer(ExtractionContext context) {
+			return new ExtractorSetComposer(context);
 		}
 
 		private class ExtractorSetComposer extends Composer {
@@ -339,6 +611,20 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 			boolean done = false;
 			Object value;
 			
+			final VectorResultReceiver output = new VectorResultReceiver() {
+				@Override
+				public void push(int id, Object part) {
+					context.route(outValues[id], part);
+				}
+			};
+			
+			// nested set state is reused too
+			final Object nestedContext;
+			
+			ExtractorSetComposer(ExtractionContext context) {
+				super(context);
+				nestedContext = extractorSet instanceof ContextualExtractorSet ? ((ContextualExtractorSet<?>)extractorSet).newContext() : null;
+			}
 			
 			@Override
 			public void push(int id, Object part) {
@@ -355,14 +641,27 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 				value = part;
 			}
 
-			public void compose(final ExtractionContext context) {
+			@SuppressWarnings("unchecked")
+			public void compose() {
 				done = true;
-				extractorSet.extractAll(value, new VectorResultReceiver() {
-					@Override
-					public void push(int id, Object part) {
-						outLinks[id].push(context, part);
-					}
-				});
+				if (nestedContext != null) {
+					((ContextualExtractorSet<Object>)extractorSet).extractAll(value, output, nestedContext);
+				}
+				else {
+					extractorSet.extractAll(value, output);
+				}
+			}
+
+			@Override
+			public void reset() {
+				set = false;
+				done = false;
+				value = null;
+			}
+
+			@Override
+			public boolean isEager() {
+				return false;
 			}
 		}
 	}
@@ -370,8 +669,12 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 	private class Composition extends ProcessingNode {
 		
 		final CompositeExtractor<?> extractor;
+		int inputCount;
 		int outIndex;
 		ValueLink outLink;
+		int outValue;
+		// shared by composers of all contexts
+		Object state;
 		
 		Composition(CompositeExtractor<?> extractor) {
 			this.extractor = extractor;
@@ -380,19 +683,32 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 		@Override
 		public void compile() {
 			outLink = links.get(outIndex);
+			if (extractor instanceof StatefulCompositeExtractor) {
+				state = ((StatefulCompositeExtractor<?>)extractor).newNodeState();
+			}
 		}		
 
 		@Override
-		public Composer newComposer() {
-			return new FunctionComposer(extractor.newComposer());
+		public Composer newComposer(ExtractionContext context) {
+			return new FunctionComposer(context, newValueComposer());
 		}
 
-		private class FunctionComposer extends Composer {
+		ValueComposer newValueComposer() {
+			if (state != null) {
+				return ((StatefulCompositeExtractor<?>)extractor).newComposer(state);
+			}
+			else {
+				return extractor.newComposer();
+			}
+		}
+
+		private class FunctionComposer extends Composer implements ScalarResultReceiver {
 			
 			private ValueComposer composer;
 			private boolean done = false;
 			
-			public FunctionComposer(ValueComposer composer) {
+			public FunctionComposer(ExtractionContext context, ValueComposer composer) {
+				super(context);
 				this.composer = composer;
 			}
 
@@ -405,36 +721,40 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 			}
 
 			@Override
-			public void compose(ExtractionContext context) {
+			public void push(Object part) {
+				context.route(outValue, part);
+			}
+
+			@Override
+			public void compose() {
 				done = true;
-				composer.compose(new LinkRef(outLink, context));
+				composer.compose(this);
+			}
+
+			@Override
+			public void reset() {
+				done = false;
+				if (composer instanceof ResettableComposer) {
+					((ResettableComposer)composer).reset();
+				}
+				else {
+					composer = newValueComposer();
+				}
+			}
+
+			@Override
+			public boolean isEager() {
+				// folded constants may be left without consumers
+				return (inputCount == 0 || composer instanceof EagerComposer) && context.fanNode[outValue].length > 0;
 			}
 		}
 	}
 	
+	/**
+	 * Link graph is used during construction, it is lowered 
+	 * to flat tables on compilation.
+	 */
 	private static interface ValueLink {
-		public void push(ExtractionContext context, Object value);
-	}
-	
-	private static class LinkRef implements ScalarResultReceiver {
-		
-		private final ValueLink link;
-		private final ExtractionContext context;
-
-		public LinkRef(ValueLink link, ExtractionContext context) {
-			this.link = link;
-			this.context = context;
-		}
-
-		@Override
-		public void push(Object part) {
-			link.push(context, part);
-		}
-
-		@Override
-		public String toString() {
-			return link.toString();
-		}
 	}
 	
 	private static class ForkLink implements ValueLink {
@@ -446,12 +766,6 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 			this.a = a;
 			this.b = b;
 		}
-
-		@Override
-		public void push(ExtractionContext context, Object value) {
-			a.push(context, value);
-			b.push(context, value);			
-		}
 	}
 	
 	private static class ResultVectorLink implements ValueLink {
@@ -462,11 +776,6 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 			this.outIndex = outIndex;
 		}
 
-		@Override
-		public void push(ExtractionContext context, Object value) {
-			context.resultVector.push(outIndex, value);
-		}
-		
 		@Override
 		public String toString() {
 			return "R[" + outIndex + "]";
@@ -483,14 +792,9 @@ public class CompositeExtractorSet implements BinaryExtractorSet, Serializable {
 			this.argIndex = argIndex;
 		}
 
-		@Override
-		public void push(ExtractionContext context, Object value) {
-			context.composers.get(id).push(argIndex, value);
-		}		
-		
 		@Override
 		public String toString() {
 			return "C" + id + "[" + argIndex + "]";
 		}
 	}
-}
+}
\ No newline at end of file
@@ -17,6 +17,10 @@ public class ConstExtractor<V> extends AbstractCompositeExtractor<V> {
 		this.value = value;
 	}
 
+	public V getValue() {
+		return value;
+	}
+
 	@Override
 	public Object getOperationToken() {
 		return value;
@@ -29,7 +33,7 @@ public class ConstExtractor<V> extends AbstractCompositeExtractor<V> {
 
 	@Override
 	public ValueComposer newComposer() {
-		return new ValueComposer() {
+		return new ResettableComposer() {
 
 			@Override
 			public void push(int id, Object part) {
@@ -40,6 +44,11 @@ public class ConstExtractor<V> extends AbstractCompositeExtractor<V> {
 			public void compose(ScalarResultReceiver output) {
 				output.push(value);
 			}
+
+			@Override
+			public void reset() {
+				// stateless
+			}
 		};
 	}
 
@@ -0,0 +1,26 @@
+package org.gridkit.data.extractors.common;
+
+/**
+ * {@link BinaryExtractorSet} keeping its per extraction state in explicit context,
+ * so caller could reuse state between extractions instead of allocating it each time.
+ *
+ * @param <C> type of extraction context
+ */
+public interface ContextualExtractorSet<C> extends BinaryExtractorSet {
+
+	/**
+	 * Creates extraction state which could be reused by subsequent 
+	 * {@link #extractAll(Object, VectorResultReceiver, Object)} calls.
+	 * Context is not thread safe, typically it is allocated once per thread.
+	 */
+	public C newContext();
+
+	/**
+	 * Same as {@link #extractAll(Object, VectorResultReceiver)} but reuses provided context
+	 * instead of allocating new one.
+	 * 
+	 * @param context - obtained from {@link #newContext()} of this set, should not be used concurrently
+	 */
+	public void extractAll(Object source, VectorResultReceiver resultReceiver, C context);
+
+}
@@ -0,0 +1,170 @@
+package org.gridkit.data.extractors.common;
+
+import static org.gridkit.data.extractors.common.UnsafeAccess.UNSAFE;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * {@link BinaryReader} over off heap memory, values are loaded
+ * directly from memory address using {@link sun.misc.Unsafe}.
+ * Availability should be checked using {@link #isSupported()}.
+ * <p>
+ * Reader keeps reference to the owner of memory (e.g. direct {@link ByteBuffer})
+ * to prevent it from being released. Reader is immutable and could be shared between threads.
+ */
+@SuppressWarnings("restriction")
+public class DirectMemoryReader implements BinaryReader {
+
+	/**
+	 * @return <code>true</code> if direct memory access is available on this JVM
+	 */
+	public static boolean isSupported() {
+		return UNSAFE != null && UnsafeAccess.BUFFER_ADDRESS_OFFSET >= 0;
+	}
+
+	private final long address;
+	private final int length;
+	// keeps memory reachable, also used for asBuffer()
+	private final ByteBuffer owner;
+	private final int ownerOffset;
+
+	/**
+	 * Creates reader over remaining bytes of direct buffer.
+	 */
+	public DirectMemoryReader(ByteBuffer buffer) {
+		this(UnsafeAccess.getAddress(buffer) + buffer.position(), buffer.remaining(), buffer, buffer.position());
+	}
+
+	/**
+	 * Creates reader over raw memory range. Caller is responsible for keeping memory allocated
+	 * while reader is in use.
+	 */
+	public DirectMemoryReader(long address, int length) {
+		this(address, length, null, 0);
+	}
+
+	private DirectMemoryReader(long address, int length, ByteBuffer owner, int ownerOffset) {
+		if (!isSupported()) {
+			throw new UnsupportedOperationException("Direct memory access is not supported");
+		}
+		if (length < 0) {
+			throw new IllegalArgumentException("Negative length " + length);
+		}
+		this.address = address;
+		this.length = length;
+		this.owner = owner;
+		this.ownerOffset = ownerOffset;
+	}
+
+	private long address(int off, int size) {
+		if (off < 0 || off > length - size) {
+			throw new IndexOutOfBoundsException("Offset " + off + " (" + size + " bytes) is out of bounds, length " + length);
+		}
+		return address + off;
+	}
+
+	@Override
+	public BinaryReader slice(int offs, int length) {
+		if (length < 0) {
+			throw new IndexOutOfBoundsException("Negative length " + length);
+		}
+		return new DirectMemoryReader(address(offs, length), length, owner, ownerOffset + offs);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public ByteBuffer asBuffer() {
+		if (owner != null) {
+			ByteBuffer bb = owner.duplicate();
+			bb.limit(ownerOffset + length);
+			bb.position(ownerOffset);
+			return bb.slice();
+		}
+		else {
+			byte[] copy = new byte[length];
+			getBytes(copy, 0, 0, length);
+			return ByteBuffer.wrap(copy);
+		}
+	}
+
+	@Override
+	public byte getByte(int off) {
+		return UNSAFE.getByte(address(off, 1));
+	}
+
+	@Override
+	public char getChar(int off) {
+		return (char) getInt16(off);
+	}
+
+	@Override
+	public short getInt16(int off) {
+		return UnsafeAccess.toBigEndian(UNSAFE.getShort(address(off, 2)));
+	}
+
+	@Override
+	public int getInt32(int off) {
+		return UnsafeAccess.toBigEndian(UNSAFE.getInt(address(off, 4)));
+	}
+
+	@Override
+	public long getInt64(int off) {
+		return UnsafeAccess.toBigEndian(UNSAFE.getLong(address(off, 8)));
+	}
+
+	@Override
+	public float getFloat32(int off) {
+		return Float.intBitsToFloat(getInt32(off));
+	}
+
+	@Override
+	public double getFloat64(int off) {
+		return Double.longBitsToDouble(getInt64(off));
+	}
+
+	@Override
+	public void getBytes(byte[] target, int off, int arrayOff, int len) {
+		if (arrayOff < 0 || len < 0 || arrayOff + len > target.length) {
+			throw new IndexOutOfBoundsException("Range [" + arrayOff + ", " + (arrayOff + len) + ") is out of array bounds");
+		}
+		long addr = address(off, len);
+		if (owner != null) {
+			ByteBuffer bb = owner.duplicate();
+			bb.position(ownerOffset + off);
+			bb.get(target, arrayOff, len);
+		}
+		else {
+			for(int i = 0; i != len; ++i) {
+				target[arrayOff + i] = UNSAFE.getByte(addr + i);
+			}
+		}
+	}
+
+	@Override
+	public short getInt16(int off, ByteOrder order) {
+		short v = UNSAFE.getShort(address(off, 2));
+		return order == ByteOrder.BIG_ENDIAN ? UnsafeAccess.toBigEndian(v) : UnsafeAccess.toLittleEndian(v);
+	}
+
+	@Override
+	public int getInt32(int off, ByteOrder order) {
+		int v = UNSAFE.getInt(address(off, 4));
+		return order == ByteOrder.BIG_ENDIAN ? UnsafeAccess.toBigEndian(v) : UnsafeAccess.toLittleEndian(v);
+	}
+
+	@Override
+	public long getInt64(int off, ByteOrder order) {
+		long v = UNSAFE.getLong(address(off, 8));
+		return order == ByteOrder.BIG_ENDIAN ? UnsafeAccess.toBigEndian(v) : UnsafeAccess.toLittleEndian(v);
+	}
+
+	@Override
+	public String toString() {
+		return "DirectMemoryReader[" + length + "]";
+	}
+}
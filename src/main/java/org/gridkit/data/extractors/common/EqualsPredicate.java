@@ -30,6 +30,13 @@ public class EqualsPredicate extends AbstractCompositeExtractor<Boolean> {
 	public ValueComposer newComposer() {
 		return new EqualsComposer();
 	}
+
+	/**
+	 * @return same predicate with operands swapped
+	 */
+	EqualsPredicate mirror() {
+		return new EqualsPredicate(right, left);
+	}
 	
 	@Override
 	public int hashCode() {
@@ -66,7 +73,7 @@ public class EqualsPredicate extends AbstractCompositeExtractor<Boolean> {
 		return "eq(" + left + ", " + right + ")"; 
 	}
 	
-	private static class EqualsComposer implements ValueComposer {
+	private static class EqualsComposer implements ResettableComposer {
 		
 		private Object left;
 		private boolean leftDefined;		
@@ -100,10 +107,25 @@ public class EqualsPredicate extends AbstractCompositeExtractor<Boolean> {
 				else if (left == null || right == null) {
 					output.push(Boolean.FALSE);
 				}
+				else if (left instanceof Utf8String && right instanceof CharSequence) {
+					// Utf8String.equals() is true only for views
+					output.push(((Utf8String)left).contentEquals((CharSequence)right));
+				}
+				else if (right instanceof Utf8String && left instanceof CharSequence) {
+					output.push(((Utf8String)right).contentEquals((CharSequence)left));
+				}
 				else {
 					output.push(left.equals(right));
 				}
 			}
 		}
+
+		@Override
+		public void reset() {
+			left = null;
+			leftDefined = false;
+			right = null;
+			rightDefined = false;
+		}
 	}
 }
@@ -1,52 +1,50 @@
 package org.gridkit.data.extractors.common;
 
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
 public class Extractors {
 
+	/** Max number of compiled plans cached by {@link #extract(Object, BinaryExtractor)} and {@link #extractAll(Object, BinaryExtractor...)} each */
+	public static final int PLAN_CACHE_SIZE = 256;
+	
+	private static final PlanCache<BinaryExtractor<?>, SinglePlan> SINGLE_PLANS = new PlanCache<BinaryExtractor<?>, SinglePlan>(PLAN_CACHE_SIZE);
+	private static final PlanCache<List<BinaryExtractor<?>>, VectorPlan> VECTOR_PLANS = new PlanCache<List<BinaryExtractor<?>>, VectorPlan>(PLAN_CACHE_SIZE);
+
+	/**
+	 * Compiled plan is cached and reused by subsequent calls with equal extractor.
+	 */
 	@SuppressWarnings("unchecked")
 	public static <V> V extract(Object source, BinaryExtractor<V> extractor) {
-		BinaryExtractorSet set = extractor.newExtractorSet();
-		final int id = set.addExtractor(extractor);
-		set.compile();
-		final Object[] result = new Object[1];
-		set.extractAll(source, new VectorResultReceiver() {
-			@Override
-			public void push(int pid, Object part) {
-				if (id == pid) {
-					result[0] = part;
-				}
-				else {
-					throw new IllegalArgumentException("Unknown argiment ID: " + pid);
-				}
-				
-			}
-		});
-		return (V) result[0];
+		SinglePlan plan = SINGLE_PLANS.get(extractor);
+		if (plan == null) {
+			plan = SINGLE_PLANS.cache(extractor, new SinglePlan(extractor));
+		}
+		return (V) plan.extract(source);
 	}	
 
+	/**
+	 * Compiled plan is cached and reused by subsequent calls with equal list of extractors.
+	 */
 	public static Object[] extractAll(Object source, BinaryExtractor<?>... extractors) {
-		CompositeExtractorSet set = new CompositeExtractorSet();
-		final int[] idmap = new int[extractors.length];
-		for(int i = 0; i != idmap.length; ++i) {
-			idmap[i] = set.addExtractor(extractors[i]);
+		List<BinaryExtractor<?>> key = Arrays.<BinaryExtractor<?>>asList(extractors.clone());
+		VectorPlan plan = VECTOR_PLANS.get(key);
+		if (plan == null) {
+			plan = VECTOR_PLANS.cache(key, new VectorPlan(extractors));
 		}
-		
-		final Object[] result = new Object[idmap.length];
-		set.extractAll(source, new VectorResultReceiver() {
-			@Override
-			public void push(int pid, Object part) {
-				for(int i = 0; i != idmap.length; ++i) {
-					if (idmap[i] == pid) {
-						result[i] = part;
-					}
-				}
-			}
-		});
-		return result;
+		return plan.extract(source);
 	}	
+
+	/**
+	 * Drops compiled plans cached by {@link #extract(Object, BinaryExtractor)} and {@link #extractAll(Object, BinaryExtractor...)}.
+	 */
+	public static void clearPlanCache() {
+		SINGLE_PLANS.clear();
+		VECTOR_PLANS.clear();
+	}
 	
 	/**
 	 * Creates empty {@link ChainedBinaryExtractor}, useful for building extractor using method chaining.
@@ -84,6 +82,85 @@ public class Extractors {
 		}
 	}
 
+	private static class SinglePlan {
+		
+		private final BinaryExtractorSet set;
+		private final int id;
+		
+		SinglePlan(BinaryExtractor<?> extractor) {
+			set = extractor.newExtractorSet();
+			id = set.addExtractor(extractor);
+			set.compile();
+		}
+		
+		public Object extract(Object source) {
+			final Object[] result = new Object[1];
+			set.extractAll(source, new VectorResultReceiver() {
+				@Override
+				public void push(int pid, Object part) {
+					if (id == pid) {
+						result[0] = part;
+					}
+					else {
+						throw new IllegalArgumentException("Unknown argiment ID: " + pid);
+					}
+				}
+			});
+			return result[0];
+		}
+	}
+	
+	private static class VectorPlan {
+		
+		private final CompositeExtractorSet set;
+		// set output -> first argument position
+		private final int[] positions;
+		// argument position -> earlier position of same output or -1
+		private final int[] duplicates;
+		private final boolean hasDuplicates;
+		
+		VectorPlan(BinaryExtractor<?>[] extractors) {
+			set = new CompositeExtractorSet();
+			duplicates = new int[extractors.length];
+			int[] idmap = new int[extractors.length];
+			for(int i = 0; i != extractors.length; ++i) {
+				idmap[i] = set.addExtractor(extractors[i]);
+			}
+			set.compile();
+			positions = new int[set.getSize()];
+			Arrays.fill(positions, -1);
+			boolean dups = false;
+			for(int i = 0; i != idmap.length; ++i) {
+				duplicates[i] = positions[idmap[i]];
+				if (duplicates[i] < 0) {
+					positions[idmap[i]] = i;
+				}
+				else {
+					dups = true;
+				}
+			}
+			hasDuplicates = dups;
+		}
+		
+		public Object[] extract(Object source) {
+			final Object[] result = new Object[duplicates.length];
+			set.extractAll(source, new VectorResultReceiver() {
+				@Override
+				public void push(int pid, Object part) {
+					result[positions[pid]] = part;
+				}
+			});
+			if (hasDuplicates) {
+				for(int i = 0; i != duplicates.length; ++i) {
+					if (duplicates[i] >= 0) {
+						result[i] = result[duplicates[i]];
+					}
+				}
+			}
+			return result;
+		}
+	}
+
 	private static String indent(String string, int indent) {
 		StringBuilder sb = new StringBuilder();
 		
@@ -96,7 +96,7 @@ public class FilterExtractor<V> extends AbstractCompositeExtractor<V> {
 		return "f(" + predicate + ")/" + processor;
 	}
 
-	private class FilterComposer implements ValueComposer {
+	private class FilterComposer implements ResettableComposer {
 		
 		private boolean passed;
 		private boolean exists;
@@ -122,5 +122,12 @@ public class FilterExtractor<V> extends AbstractCompositeExtractor<V> {
 				processValue(output, value);
 			}			
 		}
+
+		@Override
+		public void reset() {
+			passed = false;
+			exists = false;
+			value = null;
+		}
 	}
 }
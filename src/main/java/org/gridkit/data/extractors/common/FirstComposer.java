@@ -1,7 +1,7 @@
 package org.gridkit.data.extractors.common;
 
 
-class FirstComposer implements CompositeExtractor.ValueComposer {
+class FirstComposer implements CompositeExtractor.ResettableComposer {
 
 	private boolean hasResult;
 	private Object result;
@@ -25,4 +25,10 @@ class FirstComposer implements CompositeExtractor.ValueComposer {
 			output.push(result);
 		}
 	}
+
+	@Override
+	public void reset() {
+		hasResult = false;
+		result = null;
+	}
 }
@@ -1,7 +1,7 @@
 package org.gridkit.data.extractors.common;
 
 
-class LastComposer implements CompositeExtractor.ValueComposer {
+class LastComposer implements CompositeExtractor.ResettableComposer {
 
 	private boolean hasResult;
 	private Object result;
@@ -23,4 +23,10 @@ class LastComposer implements CompositeExtractor.ValueComposer {
 			output.push(result);
 		}
 	}
+
+	@Override
+	public void reset() {
+		hasResult = false;
+		result = null;
+	}
 }
@@ -0,0 +1,106 @@
+package org.gridkit.data.extractors.common;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * <p>
+ * Short-circuit version of {@link BooleanBinaryPredicate}.
+ * Right operand is placed into a dedicated {@link BinaryExtractorSet} (same way as
+ * processor of {@link LazyFilterExtractor}) and is extracted only if left operand
+ * does not decide result.
+ * </p>
+ * <p>
+ * Unlike {@link BooleanBinaryPredicate} result is produced even if right operand
+ * is missing, as long as left operand is enough to decide it.
+ * </p>
+ */
+public class LazyBooleanPredicate extends BooleanBinaryPredicate {
+
+	private static final long serialVersionUID = 20140310L;
+
+	/**
+	 * @deprecated left public for reflection based serialization
+	 */
+	public LazyBooleanPredicate() {
+		super();
+	}
+
+	public LazyBooleanPredicate(Op op, BinaryExtractor<Boolean> left, BinaryExtractor<Boolean> right) {
+		super(op, left, right);
+		if (op != AND && op != OR) {
+			throw new IllegalArgumentException("Operation " + op + " cannot be short-circuited");
+		}
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public List<BinaryExtractor<?>> getSubExtractors() {
+		return Arrays.asList(getLeft(), new LazyExtractor(getRight()));
+	}
+
+	@Override
+	BinaryExtractor<Boolean> reduce(boolean leftConst, boolean value) {
+		if (!leftConst) {
+			// right operand is hidden behind lazy extractor
+			return null;
+		}
+		// AND is decided by false, OR is decided by true
+		boolean decisive = getOp() == OR;
+		return value == decisive ? ConstExtractor.newConst(value) : getRight();
+	}
+
+	@Override
+	public ValueComposer newComposer() {
+		return new ResettableComposer() {
+			
+			private Boolean left;
+			private LazyExtractor.Lazy right;
+			
+			@Override
+			public void push(int id, Object part) {
+				if (id == 0) {
+					if (left != null) {
+						throw new IllegalArgumentException("Single value is expected");
+					}
+					left = (Boolean) part;
+				}
+				else if (id == 1) {
+					if (right != null) {
+						throw new IllegalArgumentException("Single value is expected");
+					}
+					right = (LazyExtractor.Lazy) part;
+				}
+				else {
+					throw new IndexOutOfBoundsException("Param index " + id + " is out of bounds");
+				}
+			}
+			
+			@Override
+			public void compose(ScalarResultReceiver receiver) {
+				if (left == null) {
+					return;
+				}
+				// AND is decided by false, OR is decided by true
+				boolean decisive = getOp() == OR;
+				if (left.booleanValue() == decisive) {
+					receiver.push(left);
+				}
+				else if (right != null && right.calculate()) {
+					receiver.push(right.get());
+				}
+			}
+
+			@Override
+			public void reset() {
+				left = null;
+				right = null;
+			}
+		};
+	}
+
+	@Override
+	protected String getDescription() {
+		return "LAZY_" + super.getDescription();
+	}
+}
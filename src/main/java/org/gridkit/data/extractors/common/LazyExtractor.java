@@ -0,0 +1,96 @@
+package org.gridkit.data.extractors.common;
+
+/**
+ * Wraps extractor into a dedicated {@link BinaryExtractorSet}, instead of value
+ * it produces {@link Lazy} handle which would run extraction only if requested.
+ * Used by {@link LazyFilterExtractor} and {@link LazyBooleanPredicate}.
+ * Source ({@link java.nio.ByteBuffer} or {@link BinaryReader}) is passed to wrapped extractor as is.
+ */
+@SuppressWarnings({"serial", "rawtypes", "unchecked"})
+class LazyExtractor extends AbstractValueTransformer<Object, LazyExtractor.Lazy> {
+	
+	private final BinaryExtractorSet set;
+	private final BinaryExtractor extractor;
+	private final int id;
+	
+	public LazyExtractor(BinaryExtractor extractor) {
+		super((BinaryExtractor)VerbatimExtractor.INSTANCE);
+		this.extractor = extractor;
+		this.set = extractor.newExtractorSet();
+		this.id = set.addExtractor(extractor);
+		this.set.compile();
+	}
+
+	@Override
+	public Object getOperationToken() {
+		return this;
+	}
+
+	@Override
+	protected Lazy transform(Object source) {
+		return new Lazy(set, id, source);
+	}
+	
+	@Override
+	protected String getDescription() {
+		return "LAZY";
+	}
+
+	// identity of lazy extractor is defined by wrapped extractor, not by its (verbatim) source
+	@Override
+	public int hashCode() {
+		return extractor.hashCode();
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		LazyExtractor other = (LazyExtractor) obj;
+		return extractor.equals(other.extractor);
+	}
+
+	public String toString() {
+		return "LAZY[" + extractor + "]";
+	}
+
+	static class Lazy implements VectorResultReceiver {
+		
+		private final BinaryExtractorSet set;
+		private final int id;
+		private final Object source;
+		private boolean present;
+		private Object value;
+		
+		
+		public Lazy(BinaryExtractorSet set, int id, Object source) {
+			this.set = set;
+			this.id = id;
+			this.source = source;
+		}
+
+		public boolean calculate() {
+			set.extractAll(source, this);
+			return present;
+		}
+
+		public Object get() {
+			return value;
+		}
+
+		@Override
+		public void push(int id, Object part) {
+			if (id == this.id) {
+				present = true;
+				value = part;
+			}
+			else {
+				throw new IllegalArgumentException("No such argument #" + id);
+			}
+		}
+	}
+}
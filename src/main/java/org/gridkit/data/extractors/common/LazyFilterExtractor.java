@@ -1,7 +1,5 @@
 package org.gridkit.data.extractors.common;
 
-import java.nio.ByteBuffer;
-
 /**
  * <p>
  * {@link LazyFilterExtractor} always create a dedicated {@link BinaryExtractorSet}
@@ -28,7 +26,7 @@ public class LazyFilterExtractor<V> extends FilterExtractor<V> {
 
 	@Override
 	protected void processValue(ScalarResultReceiver output, Object value) {
-		Lazy lazy = (Lazy) value;
+		LazyExtractor.Lazy lazy = (LazyExtractor.Lazy) value;
 		if (lazy.calculate()) {
 			output.push(lazy.get());
 		}
@@ -43,77 +41,4 @@ public class LazyFilterExtractor<V> extends FilterExtractor<V> {
 	public String toString() {
 		return "F" + super.toString().substring(1);
 	}
-
-
-
-	private static class Lazy implements VectorResultReceiver {
-		
-		private final BinaryExtractorSet set;
-		private final int id;
-		private final ByteBuffer buffer;
-		private boolean present;
-		private Object value;
-		
-		
-		public Lazy(BinaryExtractorSet set, int id, ByteBuffer buffer) {
-			this.set = set;
-			this.id = id;
-			this.buffer = buffer;
-		}
-
-		public boolean calculate() {
-			set.extractAll(buffer, this);
-			return present;
-		}
-
-		public Object get() {
-			return value;
-		}
-
-		@Override
-		public void push(int id, Object part) {
-			if (id == this.id) {
-				present = true;
-				value = part;
-			}
-			else {
-				throw new IllegalArgumentException("No such argument #" + id);
-			}
-		}
-	}
-	
-	@SuppressWarnings({"serial", "rawtypes"})
-	private static class LazyExtractor extends AbstractValueTransformer<ByteBuffer, Lazy> {
-		
-		private final BinaryExtractorSet set;
-		private final BinaryExtractor extractor;
-		private final int id;
-		
-		public LazyExtractor(BinaryExtractor extractor) {
-			super(VerbatimExtractor.INSTANCE);
-			this.extractor = extractor;
-			this.set = extractor.newExtractorSet();
-			this.id = set.addExtractor(extractor);
-			this.set.compile();
-		}
-
-		@Override
-		public Object getOperationToken() {
-			return this;
-		}
-
-		@Override
-		protected Lazy transform(ByteBuffer buffer) {
-			return new Lazy(set, id, buffer);
-		}
-		
-		@Override
-		protected String getDescription() {
-			return "LAZY";
-		}
-
-		public String toString() {
-			return "LAZY[" + extractor + "]";
-		}
-	}
 }
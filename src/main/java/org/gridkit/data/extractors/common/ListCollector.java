@@ -65,7 +65,7 @@ public class ListCollector<V> extends AbstractCompositeExtractor<List<V>> {
 		return "all(" + itemExtractor + ")";
 	}
 
-	private static class ListComposer<V> implements ValueComposer {
+	private static class ListComposer<V> implements ResettableComposer, EagerComposer {
 		
 		private List<V> list = new ArrayList<V>();
 
@@ -82,5 +82,11 @@ public class ListCollector<V> extends AbstractCompositeExtractor<List<V>> {
 		public void compose(ScalarResultReceiver output) {
 			output.push(list);			
 		}
+
+		@Override
+		public void reset() {
+			// list is handed out by compose(), so it cannot be reused even if empty
+			list = new ArrayList<V>();
+		}
 	}
 }
@@ -0,0 +1,151 @@
+package org.gridkit.data.extractors.common;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Read only memory mapped file addressed by <code>long</code> positions.
+ * <p>
+ * File is mapped lazily in segments, each segment overlaps next one by <code>maxRecordSize</code> bytes,
+ * so any range not longer than <code>maxRecordSize</code> lies within single mapping and
+ * {@link #reader(long, int)} returns zero copy {@link BinaryReader} over it.
+ * Longer ranges crossing segment boundary are mapped individually.
+ * <p>
+ * File length is captured on open, data appended later is not visible.
+ * Instance is thread safe. Mappings are released by GC, {@link #close()} only closes the channel
+ * and readers obtained before should not be used after that.
+ */
+public class MappedFile implements Closeable {
+
+	public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+	public static final int DEFAULT_MAX_RECORD_SIZE = 64 << 20;
+
+	private final FileChannel channel;
+	private final long size;
+	private final int segmentSize;
+	private final int maxRecordSize;
+	private final AtomicReferenceArray<ByteBuffer> segments;
+
+	public MappedFile(File file) throws IOException {
+		this(new RandomAccessFile(file, "r").getChannel(), DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_RECORD_SIZE);
+	}
+
+	/**
+	 * @param channel - channel to map, it will be closed by {@link #close()}
+	 * @param segmentSize - distance between segment starts
+	 * @param maxRecordSize - overlap between segments
+	 */
+	public MappedFile(FileChannel channel, int segmentSize, int maxRecordSize) throws IOException {
+		if (segmentSize <= 0 || maxRecordSize < 0 || (long)segmentSize + maxRecordSize > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Invalid segment size " + segmentSize + "/" + maxRecordSize);
+		}
+		this.channel = channel;
+		this.size = channel.size();
+		this.segmentSize = segmentSize;
+		this.maxRecordSize = maxRecordSize;
+		long n = (size + segmentSize - 1) / segmentSize;
+		if (n > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("File is too large for segment size " + segmentSize);
+		}
+		this.segments = new AtomicReferenceArray<ByteBuffer>((int)n);
+	}
+
+	public long size() {
+		return size;
+	}
+
+	public int getMaxRecordSize() {
+		return maxRecordSize;
+	}
+
+	/**
+	 * @return reader over <code>length</code> bytes starting at <code>position</code>, data is not copied
+	 */
+	public BinaryReader reader(long position, int length) throws IOException {
+		ByteBuffer bb = buffer(position, length);
+		return bb.isDirect() && DirectMemoryReader.isSupported() ? new DirectMemoryReader(bb) : new BinaryReader.ByteBufferReader(bb);
+	}
+
+	/**
+	 * @return {@link ByteBuffer} over <code>length</code> bytes starting at <code>position</code>, data is not copied
+	 */
+	public ByteBuffer buffer(long position, int length) throws IOException {
+		checkRange(position, length);
+		if (length == 0) {
+			return ByteBuffer.allocate(0);
+		}
+		int sn = (int)(position / segmentSize);
+		int offs = (int)(position - (long)sn * segmentSize);
+		ByteBuffer bb = segment(sn);
+		if (offs + length <= bb.capacity()) {
+			bb = bb.duplicate();
+			bb.limit(offs + length);
+			bb.position(offs);
+			return bb.slice();
+		}
+		else {
+			// range is longer than overlap and crosses segment boundary
+			return channel.map(MapMode.READ_ONLY, position, length);
+		}
+	}
+
+	public byte getByte(long position) throws IOException {
+		return buffer(position, 1).get(0);
+	}
+
+	public int getInt32(long position) throws IOException {
+		return buffer(position, 4).getInt(0);
+	}
+
+	public long getInt64(long position) throws IOException {
+		return buffer(position, 8).getLong(0);
+	}
+
+	public int getInt32(long position, ByteOrder order) throws IOException {
+		int v = getInt32(position);
+		return order == ByteOrder.BIG_ENDIAN ? v : Integer.reverseBytes(v);
+	}
+
+	public long getInt64(long position, ByteOrder order) throws IOException {
+		long v = getInt64(position);
+		return order == ByteOrder.BIG_ENDIAN ? v : Long.reverseBytes(v);
+	}
+
+	private void checkRange(long position, int length) {
+		if (position < 0 || length < 0 || position > size - length) {
+			throw new IndexOutOfBoundsException("Range [" + position + ", " + (position + length) + ") is out of file bounds, size " + size);
+		}
+	}
+
+	private ByteBuffer segment(int sn) throws IOException {
+		ByteBuffer bb = segments.get(sn);
+		if (bb == null) {
+			long start = (long)sn * segmentSize;
+			long len = Math.min((long)segmentSize + maxRecordSize, size - start);
+			// concurrent mappings of same segment are harmless, only one is kept
+			segments.compareAndSet(sn, null, channel.map(MapMode.READ_ONLY, start, len));
+			bb = segments.get(sn);
+		}
+		return bb;
+	}
+
+	@Override
+	public void close() throws IOException {
+		for(int i = 0; i != segments.length(); ++i) {
+			segments.set(i, null);
+		}
+		channel.close();
+	}
+
+	@Override
+	public String toString() {
+		return "MappedFile[" + size + "]";
+	}
+}
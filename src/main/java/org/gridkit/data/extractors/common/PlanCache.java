@@ -0,0 +1,49 @@
+package org.gridkit.data.extractors.common;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded concurrent cache of compiled plans.
+ * Lookups are lock free. Eviction is approximate, once cache is full
+ * an arbitrary entry is dropped to make room for a new one.
+ */
+class PlanCache<K, V> {
+
+	private final int capacity;
+	private final ConcurrentHashMap<K, V> plans = new ConcurrentHashMap<K, V>();
+
+	public PlanCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity should be positive: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	public V get(K key) {
+		return plans.get(key);
+	}
+
+	/**
+	 * @return cached plan, which is either provided one or plan cached concurrently by other thread
+	 */
+	public V cache(K key, V plan) {
+		if (plans.size() >= capacity) {
+			Iterator<K> it = plans.keySet().iterator();
+			if (it.hasNext()) {
+				it.next();
+				it.remove();
+			}
+		}
+		V prev = plans.putIfAbsent(key, plan);
+		return prev == null ? plan : prev;
+	}
+
+	public int size() {
+		return plans.size();
+	}
+
+	public void clear() {
+		plans.clear();
+	}
+}
@@ -0,0 +1,135 @@
+package org.gridkit.data.extractors.common;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Flyweight (base, offset, length) view over another {@link BinaryReader}.
+ * <p>
+ * Unlike {@link BinaryReader#slice(int, int)}, view could be re-pointed using {@link #point(BinaryReader, int, int)},
+ * so single instance could be reused for many ranges without allocation.
+ * {@link #slice(int, int)} of a view returns new independent view sharing same base.
+ * <p>
+ * View is mutable and should not be shared between threads.
+ */
+public class ReaderView implements BinaryReader {
+
+	private BinaryReader base;
+	private int offset;
+	private int length;
+
+	/**
+	 * Creates view not pointing anywhere, {@link #point(BinaryReader, int, int)} should be called before use.
+	 */
+	public ReaderView() {
+	}
+
+	public ReaderView(BinaryReader base, int offset, int length) {
+		point(base, offset, length);
+	}
+
+	/**
+	 * Re-points view to a range of given base reader.
+	 * @return this view
+	 */
+	public ReaderView point(BinaryReader base, int offset, int length) {
+		if (offset < 0 || length < 0 || offset > base.length() - length) {
+			throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + length) + ") is out of bounds, length " + base.length());
+		}
+		if (base instanceof ReaderView) {
+			// avoid chains of views
+			ReaderView view = (ReaderView) base;
+			offset += view.offset;
+			base = view.base;
+		}
+		this.base = base;
+		this.offset = offset;
+		this.length = length;
+		return this;
+	}
+
+	private int index(int off, int size) {
+		if (off < 0 || off > length - size) {
+			throw new IndexOutOfBoundsException("Offset " + off + " (" + size + " bytes) is out of bounds, length " + length);
+		}
+		return offset + off;
+	}
+
+	@Override
+	public BinaryReader slice(int offs, int length) {
+		if (length < 0) {
+			throw new IndexOutOfBoundsException("Negative length " + length);
+		}
+		return new ReaderView(base, index(offs, length), length);
+	}
+
+	@Override
+	public int length() {
+		return length;
+	}
+
+	@Override
+	public ByteBuffer asBuffer() {
+		return base.slice(offset, length).asBuffer();
+	}
+
+	@Override
+	public byte getByte(int off) {
+		return base.getByte(index(off, 1));
+	}
+
+	@Override
+	public char getChar(int off) {
+		return base.getChar(index(off, 2));
+	}
+
+	@Override
+	public short getInt16(int off) {
+		return base.getInt16(index(off, 2));
+	}
+
+	@Override
+	public int getInt32(int off) {
+		return base.getInt32(index(off, 4));
+	}
+
+	@Override
+	public long getInt64(int off) {
+		return base.getInt64(index(off, 8));
+	}
+
+	@Override
+	public float getFloat32(int off) {
+		return base.getFloat32(index(off, 4));
+	}
+
+	@Override
+	public double getFloat64(int off) {
+		return base.getFloat64(index(off, 8));
+	}
+
+	@Override
+	public void getBytes(byte[] target, int off, int arrayOff, int len) {
+		base.getBytes(target, index(off, len), arrayOff, len);
+	}
+
+	@Override
+	public short getInt16(int off, ByteOrder order) {
+		return base.getInt16(index(off, 2), order);
+	}
+
+	@Override
+	public int getInt32(int off, ByteOrder order) {
+		return base.getInt32(index(off, 4), order);
+	}
+
+	@Override
+	public long getInt64(int off, ByteOrder order) {
+		return base.getInt64(index(off, 8), order);
+	}
+
+	@Override
+	public String toString() {
+		return "ReaderView[" + offset + ", " + length + "] of " + base;
+	}
+}
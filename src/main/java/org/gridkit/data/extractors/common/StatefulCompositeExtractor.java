@@ -0,0 +1,18 @@
+package org.gridkit.data.extractors.common;
+
+/**
+ * Composite extractor keeping run time state (e.g. statistics) per plan node.
+ * {@link CompositeExtractorSet} creates state once per node and passes it to composers
+ * of all extraction contexts, so state should be thread safe.
+ * State is shown by plan dump using its {@link Object#toString()}.
+ */
+public interface StatefulCompositeExtractor<V> extends CompositeExtractor<V> {
+
+	public Object newNodeState();
+
+	/**
+	 * @param nodeState - object produced by {@link #newNodeState()} of this extractor
+	 */
+	public ValueComposer newComposer(Object nodeState);
+
+}
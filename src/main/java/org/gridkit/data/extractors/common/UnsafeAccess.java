@@ -0,0 +1,93 @@
+package org.gridkit.data.extractors.common;
+
+import java.lang.reflect.Field;
+import java.nio.Buffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import sun.misc.Unsafe;
+
+/**
+ * Access to {@link Unsafe} for raw memory loads.
+ * If {@link Unsafe} is not available or platform does not support
+ * unaligned access, {@link #UNSAFE} is <code>null</code> and callers should
+ * fall back to portable code.
+ */
+@SuppressWarnings("restriction")
+final class UnsafeAccess {
+
+	static final Unsafe UNSAFE;
+	static final long BYTE_ARRAY_OFFSET;
+	static final long BUFFER_ADDRESS_OFFSET;
+	static final boolean NATIVE_BIG_ENDIAN = ByteOrder.nativeOrder() == ByteOrder.BIG_ENDIAN;
+
+	static {
+		Unsafe unsafe = null;
+		long arrayOffset = -1;
+		long addressOffset = -1;
+		try {
+			if (isUnalignedAccessSupported()) {
+				Field f = Unsafe.class.getDeclaredField("theUnsafe");
+				f.setAccessible(true);
+				unsafe = (Unsafe) f.get(null);
+				arrayOffset = unsafe.arrayBaseOffset(byte[].class);
+				try {
+					addressOffset = unsafe.objectFieldOffset(Buffer.class.getDeclaredField("address"));
+				}
+				catch(Exception e) {
+					// direct buffers would not be supported
+				}
+			}
+		}
+		catch(Throwable e) {
+			unsafe = null;
+		}
+		UNSAFE = unsafe;
+		BYTE_ARRAY_OFFSET = arrayOffset;
+		BUFFER_ADDRESS_OFFSET = unsafe == null ? -1 : addressOffset;
+	}
+
+	private static boolean isUnalignedAccessSupported() {
+		String arch = System.getProperty("os.arch", "");
+		return arch.equals("x86") || arch.equals("i386") || arch.equals("amd64") || arch.equals("x86_64") || arch.equals("aarch64");
+	}
+
+	/**
+	 * @return address of first byte of direct buffer (regardless of its position)
+	 */
+	static long getAddress(ByteBuffer buffer) {
+		if (!buffer.isDirect() || BUFFER_ADDRESS_OFFSET < 0) {
+			throw new UnsupportedOperationException("Cannot obtain address of buffer");
+		}
+		return UNSAFE.getLong(buffer, BUFFER_ADDRESS_OFFSET);
+	}
+
+	// raw loads are in native byte order
+
+	static short toBigEndian(short v) {
+		return NATIVE_BIG_ENDIAN ? v : Short.reverseBytes(v);
+	}
+
+	static int toBigEndian(int v) {
+		return NATIVE_BIG_ENDIAN ? v : Integer.reverseBytes(v);
+	}
+
+	static long toBigEndian(long v) {
+		return NATIVE_BIG_ENDIAN ? v : Long.reverseBytes(v);
+	}
+
+	static short toLittleEndian(short v) {
+		return NATIVE_BIG_ENDIAN ? Short.reverseBytes(v) : v;
+	}
+
+	static int toLittleEndian(int v) {
+		return NATIVE_BIG_ENDIAN ? Integer.reverseBytes(v) : v;
+	}
+
+	static long toLittleEndian(long v) {
+		return NATIVE_BIG_ENDIAN ? Long.reverseBytes(v) : v;
+	}
+
+	private UnsafeAccess() {
+	}
+}
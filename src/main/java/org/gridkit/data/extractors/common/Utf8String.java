@@ -0,0 +1,390 @@
+package org.gridkit.data.extractors.common;
+
+import java.nio.charset.Charset;
+
+/**
+ * <p>
+ * Read only view of UTF-8 encoded string over a byte array range.
+ * Bytes are not copied, so source array should not be modified while view is in use.
+ * </p>
+ * <p>
+ * {@link #contentEquals(CharSequence)}, {@link #hashCode()}, {@link #compareTo(CharSequence)} and
+ * {@link #startsWith(CharSequence)} work directly on encoded bytes and produce same
+ * results as corresponding {@link String} methods applied to decoded text.
+ * View has same hash code as a {@link String} with same content, but {@link #equals(Object)}
+ * is true only for other views, so it stays symmetric. Use {@link #contentEquals(CharSequence)}
+ * to compare view with a {@link String}.
+ * {@link String} is materialized only by {@link #toString()} and non ASCII {@link #charAt(int)}.
+ * </p>
+ * <p>
+ * Malformed UTF-8 input is handled by falling back to decoded {@link String}.
+ * </p>
+ */
+public final class Utf8String implements CharSequence, Comparable<CharSequence> {
+
+	private static final Charset UTF8 = Charset.forName("UTF8");
+
+	// code point decoder result: code point in lower 21 bits, byte length above
+	private static final int CP_MASK = 0x1FFFFF;
+	private static final int LEN_SHIFT = 24;
+	private static final int MALFORMED = -1;
+
+	private final byte[] data;
+	private final int offset;
+	private final int size;
+
+	// lazily calculated, 0 - not known yet
+	private int hash;
+	// UTF-16 length, -1 - not known yet, -2 - malformed input
+	private int length = -1;
+	private String string;
+
+	public Utf8String(byte[] data) {
+		this(data, 0, data.length);
+	}
+
+	/**
+	 * Creates view, no bytes are copied.
+	 */
+	public Utf8String(byte[] data, int offset, int size) {
+		if (offset < 0 || size < 0 || offset + size > data.length) {
+			throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + size) + ") is out of array bounds");
+		}
+		this.data = data;
+		this.offset = offset;
+		this.size = size;
+	}
+
+	/**
+	 * @return number of encoded bytes
+	 */
+	public int byteLength() {
+		return size;
+	}
+
+	public byte byteAt(int n) {
+		if (n < 0 || n >= size) {
+			throw new IndexOutOfBoundsException("Index: " + n + ", size: " + size);
+		}
+		return data[offset + n];
+	}
+
+	/**
+	 * @return copy of encoded bytes
+	 */
+	public byte[] toBytes() {
+		byte[] bytes = new byte[size];
+		System.arraycopy(data, offset, bytes, 0, size);
+		return bytes;
+	}
+
+	@Override
+	public int length() {
+		int len = length;
+		if (len == -1) {
+			len = 0;
+			int p = offset;
+			int end = offset + size;
+			while(p < end) {
+				int cp = decode(data, p, end);
+				if (cp == MALFORMED) {
+					len = -2;
+					break;
+				}
+				len += (cp & CP_MASK) >= 0x10000 ? 2 : 1;
+				p += cp >>> LEN_SHIFT;
+			}
+			length = len;
+		}
+		return len >= 0 ? len : toString().length();
+	}
+
+	/**
+	 * @return <code>true</code> if all characters are 7 bit ASCII
+	 */
+	public boolean isAscii() {
+		return length() == size && length != -2;
+	}
+
+	@Override
+	public char charAt(int index) {
+		if (isAscii()) {
+			if (index < 0 || index >= size) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", length: " + size);
+			}
+			return (char) data[offset + index];
+		}
+		else {
+			return toString().charAt(index);
+		}
+	}
+
+	@Override
+	public CharSequence subSequence(int start, int end) {
+		if (isAscii()) {
+			if (start < 0 || end > size || start > end) {
+				throw new IndexOutOfBoundsException("Range [" + start + ", " + end + ") length: " + size);
+			}
+			return new Utf8String(data, offset + start, end - start);
+		}
+		else {
+			return toString().subSequence(start, end);
+		}
+	}
+
+	public boolean startsWith(CharSequence prefix) {
+		if (prefix instanceof Utf8String) {
+			Utf8String that = (Utf8String) prefix;
+			if (that.size > size) {
+				return false;
+			}
+			for(int i = 0; i != that.size; ++i) {
+				if (data[offset + i] != that.data[that.offset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		else {
+			int n = 0;
+			int plen = prefix.length();
+			int p = offset;
+			int end = offset + size;
+			while(n < plen) {
+				if (p >= end) {
+					return false;
+				}
+				int cp = decode(data, p, end);
+				if (cp == MALFORMED) {
+					return toString().startsWith(prefix.toString());
+				}
+				p += cp >>> LEN_SHIFT;
+				cp &= CP_MASK;
+				if (cp < 0x10000) {
+					if (prefix.charAt(n++) != cp) {
+						return false;
+					}
+				}
+				else {
+					if (prefix.charAt(n++) != highSurrogate(cp)) {
+						return false;
+					}
+					if (n == plen || prefix.charAt(n++) != lowSurrogate(cp)) {
+						return false;
+					}
+				}
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Same as {@link String#compareTo(String)} applied to decoded text of both sides,
+	 * only sign of result is meaningful.
+	 */
+	@Override
+	public int compareTo(CharSequence o) {
+		if (o == this) {
+			return 0;
+		}
+		if (o instanceof Utf8String) {
+			Utf8String that = (Utf8String) o;
+			int p1 = offset;
+			int p2 = that.offset;
+			int e1 = offset + size;
+			int e2 = that.offset + that.size;
+			// common prefix could be skipped without decoding
+			while(p1 < e1 && p2 < e2 && data[p1] == that.data[p2]) {
+				++p1;
+				++p2;
+			}
+			if (p1 == e1 || p2 == e2) {
+				return (e1 - p1) - (e2 - p2);
+			}
+			// step back to the start of code point
+			while(p1 > offset && (data[p1] & 0xC0) == 0x80) {
+				--p1;
+				--p2;
+			}
+			int c1 = decode(data, p1, e1);
+			int c2 = decode(that.data, p2, e2);
+			if (c1 == MALFORMED || c2 == MALFORMED) {
+				return toString().compareTo(that.toString());
+			}
+			// first different code point defines order
+			return utf16Order(c1 & CP_MASK) - utf16Order(c2 & CP_MASK);
+		}
+		else {
+			String that = o.toString();
+			int p = offset;
+			int end = offset + size;
+			int n = 0;
+			int len = that.length();
+			while(p < end && n < len) {
+				int c1 = decode(data, p, end);
+				if (c1 == MALFORMED) {
+					return toString().compareTo(that);
+				}
+				p += c1 >>> LEN_SHIFT;
+				c1 &= CP_MASK;
+				int c2 = that.codePointAt(n);
+				n += Character.charCount(c2);
+				if (c1 != c2) {
+					return utf16Order(c1) - utf16Order(c2);
+				}
+			}
+			return p < end ? 1 : n < len ? -1 : 0;
+		}
+	}
+
+	/**
+	 * Maps code point to a key ordered same way as UTF-16 representation.
+	 * Supplementary characters (surrogate pairs) sort before U+E000..U+FFFF range.
+	 */
+	private static int utf16Order(int cp) {
+		return cp < 0xE000 ? cp : cp < 0x10000 ? cp + 0x110000 : cp - 0x2000;
+	}
+
+	private static char highSurrogate(int cp) {
+		return (char) ((cp >>> 10) + (Character.MIN_HIGH_SURROGATE - (Character.MIN_SUPPLEMENTARY_CODE_POINT >>> 10)));
+	}
+
+	private static char lowSurrogate(int cp) {
+		return (char) ((cp & 0x3FF) + Character.MIN_LOW_SURROGATE);
+	}
+
+	/**
+	 * Same as {@link String#hashCode()} of decoded text.
+	 */
+	@Override
+	public int hashCode() {
+		int h = hash;
+		if (h == 0 && size > 0) {
+			int p = offset;
+			int end = offset + size;
+			while(p < end) {
+				int cp = decode(data, p, end);
+				if (cp == MALFORMED) {
+					h = toString().hashCode();
+					break;
+				}
+				p += cp >>> LEN_SHIFT;
+				cp &= CP_MASK;
+				if (cp < 0x10000) {
+					h = 31 * h + cp;
+				}
+				else {
+					h = 31 * h + highSurrogate(cp);
+					h = 31 * h + lowSurrogate(cp);
+				}
+			}
+			hash = h;
+		}
+		return h;
+	}
+
+	/**
+	 * View is equal only to other view with same text.
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (obj == this) {
+			return true;
+		}
+		else if (obj instanceof Utf8String) {
+			Utf8String that = (Utf8String) obj;
+			if (size != that.size) {
+				return false;
+			}
+			if (hash != 0 && that.hash != 0 && hash != that.hash) {
+				return false;
+			}
+			for(int i = 0; i != size; ++i) {
+				if (data[offset + i] != that.data[that.offset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+		else {
+			return false;
+		}
+	}
+
+	/**
+	 * Same as {@link String#contentEquals(CharSequence)} applied to decoded text.
+	 */
+	public boolean contentEquals(CharSequence cs) {
+		if (cs instanceof Utf8String) {
+			return equals(cs);
+		}
+		else {
+			int len = cs.length();
+			// UTF-8 needs 1 to 3 bytes per UTF-16 unit
+			if (size < len || size > 3 * len) {
+				return false;
+			}
+			return startsWith(cs) && length() == len;
+		}
+	}
+
+	@Override
+	public String toString() {
+		String s = string;
+		if (s == null) {
+			string = s = new String(data, offset, size, UTF8);
+		}
+		return s;
+	}
+
+	/**
+	 * Decodes single code point.
+	 * @return code point with byte length in upper bits or {@link #MALFORMED}
+	 */
+	private static int decode(byte[] data, int p, int end) {
+		int b0 = data[p];
+		if (b0 >= 0) {
+			return (1 << LEN_SHIFT) | b0;
+		}
+		else if ((b0 & 0xE0) == 0xC0) {
+			if (p + 1 >= end) {
+				return MALFORMED;
+			}
+			int b1 = data[p + 1];
+			if ((b1 & 0xC0) != 0x80) {
+				return MALFORMED;
+			}
+			int cp = ((b0 & 0x1F) << 6) | (b1 & 0x3F);
+			return cp < 0x80 ? MALFORMED : (2 << LEN_SHIFT) | cp;
+		}
+		else if ((b0 & 0xF0) == 0xE0) {
+			if (p + 2 >= end) {
+				return MALFORMED;
+			}
+			int b1 = data[p + 1];
+			int b2 = data[p + 2];
+			if ((b1 & 0xC0) != 0x80 || (b2 & 0xC0) != 0x80) {
+				return MALFORMED;
+			}
+			int cp = ((b0 & 0x0F) << 12) | ((b1 & 0x3F) << 6) | (b2 & 0x3F);
+			// overlong forms and encoded surrogates are not valid UTF-8
+			return cp < 0x800 || (cp >= 0xD800 && cp < 0xE000) ? MALFORMED : (3 << LEN_SHIFT) | cp;
+		}
+		else if ((b0 & 0xF8) == 0xF0) {
+			if (p + 3 >= end) {
+				return MALFORMED;
+			}
+			int b1 = data[p + 1];
+			int b2 = data[p + 2];
+			int b3 = data[p + 3];
+			if ((b1 & 0xC0) != 0x80 || (b2 & 0xC0) != 0x80 || (b3 & 0xC0) != 0x80) {
+				return MALFORMED;
+			}
+			int cp = ((b0 & 0x07) << 18) | ((b1 & 0x3F) << 12) | ((b2 & 0x3F) << 6) | (b3 & 0x3F);
+			return cp < 0x10000 || cp > 0x10FFFF ? MALFORMED : (4 << LEN_SHIFT) | cp;
+		}
+		else {
+			return MALFORMED;
+		}
+	}
+}
@@ -0,0 +1,165 @@
+package org.gridkit.data.extractors.protobuf;
+
+import java.util.Arrays;
+
+/**
+ * Immutable lookup table from protobuf field number to handler.
+ * Low field numbers are resolved by direct array index (single array load), sparse
+ * high numbers via collision free (perfect) hash table (multiply and two array loads).
+ * If no perfect hash is found, high numbers fall back to binary search over sorted array.
+ */
+class FieldTable<T> {
+
+	/** Field numbers below this limit always go to dense part */
+	static final int DENSE_LIMIT = 128;
+
+	private static final int HASH_MULTIPLIER = 0x9E3779B9;
+	private static final int MAX_EXTRA_BITS = 6;
+	private static final int MAX_MULTIPLIERS = 8;
+
+	private final Object[] dense;
+
+	private final int[] hashKeys;
+	private final Object[] hashValues;
+	private final int hashMultiplier;
+	private final int hashShift;
+
+	private final int[] sortedKeys;
+	private final Object[] sortedValues;
+
+	public FieldTable(int[] keys, T[] values) {
+		if (keys.length != values.length) {
+			throw new IllegalArgumentException("Keys and values should be of same length");
+		}
+		int maxDense = -1;
+		int sparse = 0;
+		for(int key: keys) {
+			if (key <= 0) {
+				throw new IllegalArgumentException("Invalid field number " + key);
+			}
+			if (key < DENSE_LIMIT) {
+				maxDense = Math.max(maxDense, key);
+			}
+			else {
+				++sparse;
+			}
+		}
+		dense = new Object[maxDense + 1];
+		int[] sparseKeys = new int[sparse];
+		Object[] sparseValues = new Object[sparse];
+		int n = 0;
+		for(int i = 0; i != keys.length; ++i) {
+			if (keys[i] < DENSE_LIMIT) {
+				dense[keys[i]] = values[i];
+			}
+			else {
+				sparseKeys[n] = keys[i];
+				sparseValues[n] = values[i];
+				++n;
+			}
+		}
+		if (sparse == 0) {
+			hashKeys = null;
+			hashValues = null;
+			hashMultiplier = 0;
+			hashShift = 32;
+		}
+		else {
+			// search for collision free combination of table size and multiplier
+			int minBits = 32 - Integer.numberOfLeadingZeros(sparse - 1);
+			int[] hk = null;
+			int bits = minBits;
+			int mult = HASH_MULTIPLIER;
+			search:
+			for(; bits <= minBits + MAX_EXTRA_BITS; ++bits) {
+				mult = HASH_MULTIPLIER;
+				for(int i = 0; i != MAX_MULTIPLIERS; ++i) {
+					hk = tryPlace(sparseKeys, bits, mult);
+					if (hk != null) {
+						break search;
+					}
+					// keep multiplier odd
+					mult += 0x6A09E666;
+				}
+			}
+			if (hk == null) {
+				// no perfect hash found, use sorted array
+				hashKeys = null;
+				hashValues = null;
+				hashMultiplier = 0;
+				hashShift = 32;
+				int[] idx = sortedIndex(sparseKeys);
+				sortedKeys = new int[sparse];
+				sortedValues = new Object[sparse];
+				for(int i = 0; i != sparse; ++i) {
+					sortedKeys[i] = sparseKeys[idx[i]];
+					sortedValues[i] = sparseValues[idx[i]];
+				}
+				return;
+			}
+			hashKeys = hk;
+			hashValues = new Object[hk.length];
+			hashMultiplier = mult;
+			hashShift = 32 - bits;
+			for(int i = 0; i != sparseKeys.length; ++i) {
+				hashValues[hash(sparseKeys[i], mult, hashShift)] = sparseValues[i];
+			}
+		}
+		sortedKeys = null;
+		sortedValues = null;
+	}
+
+	private static int[] sortedIndex(int[] keys) {
+		long[] pairs = new long[keys.length];
+		for(int i = 0; i != keys.length; ++i) {
+			pairs[i] = (((long)keys[i]) << 32) | i;
+		}
+		Arrays.sort(pairs);
+		int[] idx = new int[keys.length];
+		for(int i = 0; i != keys.length; ++i) {
+			idx[i] = (int)pairs[i];
+		}
+		return idx;
+	}
+
+	private static int[] tryPlace(int[] keys, int bits, int mult) {
+		int[] table = new int[1 << bits];
+		int shift = 32 - bits;
+		for(int key: keys) {
+			int h = hash(key, mult, shift);
+			if (table[h] != 0) {
+				return null;
+			}
+			table[h] = key;
+		}
+		return table;
+	}
+
+	private static int hash(int key, int mult, int shift) {
+		// shift of 32 is no-op for int, so bits == 0 is handled by mask
+		return shift == 32 ? 0 : (key * mult) >>> shift;
+	}
+
+	@SuppressWarnings("unchecked")
+	public T get(int fieldNumber) {
+		if (fieldNumber < dense.length) {
+			return (T) dense[fieldNumber];
+		}
+		else if (hashKeys != null) {
+			int h = hash(fieldNumber, hashMultiplier, hashShift);
+			return hashKeys[h] == fieldNumber ? (T) hashValues[h] : null;
+		}
+		else if (sortedKeys != null) {
+			int n = Arrays.binarySearch(sortedKeys, fieldNumber);
+			return n < 0 ? null : (T) sortedValues[n];
+		}
+		else {
+			return null;
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "dense=" + dense.length + ", hash=" + (hashKeys == null ? "[]" : Arrays.toString(hashKeys)) + ", sorted=" + (sortedKeys == null ? "[]" : Arrays.toString(sortedKeys));
+	}
+}
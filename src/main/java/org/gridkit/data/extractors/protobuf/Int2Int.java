@@ -33,19 +33,27 @@ class Int2Int {
 		return map == null ? 0 : map.length;
 	}
 	
-	public VectorResultReceiver newMapper(final VectorResultReceiver receiver) {
-		return new VectorResultReceiver() {
-			@Override
-			public void push(int id, Object part) {
-				int nid = get(id);
-				if (nid < 0) {
-					throw new IllegalArgumentException("Index " + id + " is not mapped");
-				}
-				else {
-					receiver.push(nid, part);
-				}
+	/**
+	 * @return mapper which could be retargeted to different receivers and reused
+	 */
+	public Mapper newMapper() {
+		return new Mapper();
+	}
+
+	class Mapper implements VectorResultReceiver {
+
+		VectorResultReceiver receiver;
+
+		@Override
+		public void push(int id, Object part) {
+			int nid = get(id);
+			if (nid < 0) {
+				throw new IllegalArgumentException("Index " + id + " is not mapped");
+			}
+			else {
+				receiver.push(nid, part);
 			}
-		};
+		}
 	}
 	
 	public String toString() {
@@ -3,6 +3,7 @@ package org.gridkit.data.extractors.protobuf;
 import java.nio.ByteBuffer;
 
 import org.gridkit.data.extractors.common.BinaryReader;
+import org.gridkit.data.extractors.common.DirectMemoryReader;
 
 class PBHelper {
 	
@@ -18,7 +19,16 @@ class PBHelper {
 //	}
 
 	public static ProtoBufCodedStream inputStream(ByteBuffer buffer) {
-		BinaryReader reader = new BinaryReader.ByteBufferReader(buffer);
+		if (buffer.hasArray()) {
+			return new ProtoBufCodedStream.ByteArrayStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}
+		BinaryReader reader = buffer.isDirect() && DirectMemoryReader.isSupported()
+				? new DirectMemoryReader(buffer)
+				: new BinaryReader.ByteBufferReader(buffer);
+		return new ProtoBufCodedStream.BinaryReaderStream(reader);
+	}
+
+	public static ProtoBufCodedStream inputStream(BinaryReader reader) {
 		return new ProtoBufCodedStream.BinaryReaderStream(reader);
 	}
 }
@@ -3,9 +3,14 @@ package org.gridkit.data.extractors.protobuf;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.charset.Charset;
+import java.util.Arrays;
 
 import org.gridkit.data.extractors.common.BinaryReader;
+import org.gridkit.data.extractors.common.Blob;
+import org.gridkit.data.extractors.common.Utf8String;
 
 abstract class ProtoBufCodedStream {
 
@@ -65,7 +70,7 @@ abstract class ProtoBufCodedStream {
 	public boolean skipField(final int tag) throws IOException {
 		switch (getTagWireType(tag)) {
 		case WIRETYPE_VARINT:
-			readInt32();
+			skipRawVarint();
 			return true;
 		case WIRETYPE_FIXED64:
 			readRawLittleEndian64();
@@ -154,6 +159,23 @@ abstract class ProtoBufCodedStream {
 	
 	protected abstract String copyAsString(int pos, int size);
 
+	/** Read a {@code string} field value, deduplicating it using provided cache. */
+	public String readString(StringCache cache) throws IOException {
+		final int size = readRawVarint32();
+		
+		if (size > getBytesUntilLimit()) {
+			throw new BufferUnderflowException();
+		}
+		
+		final String result = copyAsString(bufPos, size, cache);
+		bufPos += size;
+		return result;
+	}
+
+	protected String copyAsString(int pos, int size, StringCache cache) {
+		return cache.decode(copyAsBytes(pos, size), 0, size);
+	}
+
 	/** Read a {@code bytes} field value from the stream. */
 	public byte[] readBytes() throws IOException {
 		final int size = readRawVarint32();
@@ -169,14 +191,60 @@ abstract class ProtoBufCodedStream {
 		}
 	}
 	
-	public BinaryReader limitedReader() {
-		return asReader(bufPos, limit - bufPos);
+	/** Read a {@code bytes} field value as {@link Blob}. */
+	public Blob readBlob() throws IOException {
+		final int size = readRawVarint32();
+		if (size > getBytesUntilLimit()) {
+			throw new BufferUnderflowException();
+		}
+		Blob result = copyAsBlob(bufPos, size);
+		bufPos += size;
+		return result;
+	}
+
+	/** Read a {@code string} field value as a view of UTF-8 bytes. */
+	public Utf8String readUtf8String() throws IOException {
+		final int size = readRawVarint32();
+		if (size > getBytesUntilLimit()) {
+			throw new BufferUnderflowException();
+		}
+		Utf8String result = copyAsUtf8String(bufPos, size);
+		bufPos += size;
+		return result;
 	}
 
-	protected abstract BinaryReader asReader(int pos, int size);
+	/** Read a {@code bytes} field value as a view of underlying data. */
+	public ByteBuffer readByteBuffer() throws IOException {
+		return readRawBuffer(readRawVarint32());
+	}
+
+	/**
+	 * Reads {@code size} raw bytes as a view of underlying data.
+	 */
+	public ByteBuffer readRawBuffer(int size) throws IOException {
+		if (size < 0) {
+			throw ProtocolBufferWireFormatException.negativeSize();
+		}
+		if (size > getBytesUntilLimit()) {
+			throw new BufferUnderflowException();
+		}
+		ByteBuffer result = asBuffer(bufPos, size);
+		bufPos += size;
+		return result;
+	}
+	
+	protected abstract ByteBuffer asBuffer(int pos, int size);
+
+	protected Blob copyAsBlob(int pos, int size) {
+		return new Blob(copyAsBytes(pos, size));
+	}
 
 	protected abstract byte[] copyAsBytes(int pos, int size);
 
+	protected Utf8String copyAsUtf8String(int pos, int size) {
+		return new Utf8String(copyAsBytes(pos, size));
+	}
+
 	/** Read a {@code uint32} field value from the stream. */
 	public int readUInt32() throws IOException {
 		return readRawVarint32();
@@ -217,6 +285,16 @@ abstract class ProtoBufCodedStream {
 	 * upper bits.
 	 */
 	public int readRawVarint32() throws IOException {
+		if (bufLimit - bufPos >= 8) {
+			final long word = wordAt(bufPos);
+			final int len = varintLength(word);
+			if (len != 0) {
+				bufPos += len;
+				// upper bits are discarded by cast
+				return (int) decodeVarint(word, len);
+			}
+			// varint is longer than 8 bytes, fall back to byte loop
+		}
 		byte tmp = readRawByte();
 		if (tmp >= 0) {
 			return tmp;
@@ -304,6 +382,14 @@ abstract class ProtoBufCodedStream {
 
 	/** Read a raw Varint from the stream. */
 	public long readRawVarint64() throws IOException {
+		if (bufLimit - bufPos >= 8) {
+			final long word = wordAt(bufPos);
+			final int len = varintLength(word);
+			if (len != 0) {
+				bufPos += len;
+				return decodeVarint(word, len);
+			}
+		}
 		int shift = 0;
 		long result = 0;
 		while (shift < 64) {
@@ -317,6 +403,61 @@ abstract class ProtoBufCodedStream {
 		throw ProtocolBufferWireFormatException.malformedVarint();
 	}
 
+	/**
+	 * Skips a varint without assembling its value.
+	 */
+	public void skipRawVarint() throws IOException {
+		if (bufLimit - bufPos >= 8) {
+			final int len = varintLength(wordAt(bufPos));
+			if (len != 0) {
+				bufPos += len;
+				return;
+			}
+		}
+		for (int i = 0; i < 10; i++) {
+			if (readRawByte() >= 0) {
+				return;
+			}
+		}
+		throw ProtocolBufferWireFormatException.malformedVarint();
+	}
+
+	/**
+	 * Length of varint starting at lowest byte of little-endian word,
+	 * or 0 if varint does not terminate within the word.
+	 */
+	static int varintLength(final long word) {
+		// terminating byte is the first one with clear high bit
+		final long stops = ~word & 0x8080808080808080L;
+		return stops == 0 ? 0 : (Long.numberOfTrailingZeros(stops) + 1) >>> 3;
+	}
+
+	/**
+	 * Assembles value of varint occupying lower {@code len} bytes of little-endian word.
+	 * Up to 8 bytes (56 bits of payload) are supported.
+	 */
+	static long decodeVarint(long word, final int len) {
+		// drop bytes beyond varint and continuation bits
+		word &= (-1l >>> (64 - (len << 3))) & 0x7F7F7F7F7F7F7F7FL;
+		// compact 7 bit groups pairwise: 8 x 7 -> 4 x 14 -> 2 x 28 -> 56
+		word = (word & 0x007F007F007F007FL) | ((word & 0x7F007F007F007F00L) >>> 1);
+		word = (word & 0x00003FFF00003FFFL) | ((word & 0x3FFF00003FFF0000L) >>> 2);
+		word = (word & 0x000000000FFFFFFFL) | ((word & 0x0FFFFFFF00000000L) >>> 4);
+		return word;
+	}
+
+	/**
+	 * Reads 8 bytes at absolute position as little-endian word, no position change.
+	 * Caller should ensure that 8 bytes are available.
+	 * Subclasses are expected to replace this with a single wide load.
+	 */
+	protected long wordAt(int pos) {
+		return (((long) byteAt(pos) & 0xff)) | (((long) byteAt(pos + 1) & 0xff) << 8)
+				| (((long) byteAt(pos + 2) & 0xff) << 16) | (((long) byteAt(pos + 3) & 0xff) << 24)
+				| (((long) byteAt(pos + 4) & 0xff) << 32) | (((long) byteAt(pos + 5) & 0xff) << 40)
+				| (((long) byteAt(pos + 6) & 0xff) << 48) | (((long) byteAt(pos + 7) & 0xff) << 56);
+	}
+
 	/** Read a 32-bit little-endian integer from the stream. */
 	public int readRawLittleEndian32() throws IOException {
 		final byte b1 = readRawByte();
@@ -483,6 +624,17 @@ abstract class ProtoBufCodedStream {
 		return bufPos;
 	}
 
+	/**
+	 * Moves read position, usually back to a previously observed
+	 * {@link #getTotalBytesRead()} value. Position cannot be moved beyond current limit.
+	 */
+	public void seek(int position) {
+		if (position < 0 || position > limit) {
+			throw new IndexOutOfBoundsException("Position " + position + " is beyond current limit");
+		}
+		bufPos = position;
+	}
+
 	/**
 	 * Read one byte from the input.
 	 * 
@@ -531,8 +683,8 @@ abstract class ProtoBufCodedStream {
 		}
 
 		@Override
-		protected BinaryReader asReader(int pos, int size) {
-			return reader.slice(pos, size);
+		protected ByteBuffer asBuffer(int pos, int size) {
+			return reader.slice(pos, size).asBuffer();
 		}
 
 		@Override
@@ -553,5 +705,356 @@ abstract class ProtoBufCodedStream {
 		protected byte byteAt(int pos) {
 			return reader.getByte(pos);
 		}
+
+		@Override
+		protected long wordAt(int pos) {
+			return reader.getInt64(pos, ByteOrder.LITTLE_ENDIAN);
+		}
+	}
+
+	/**
+	 * Stream over heap byte array. Tags, varints and fixed width fields
+	 * are decoded directly from array, with a single bounds check per field
+	 * on the fast path.
+	 */
+	public static class ByteArrayStream extends ProtoBufCodedStream {
+
+		private static Charset UTF8 = Charset.forName("UTF8");
+		
+		private final byte[] buffer;
+		private final int offset;
+		
+		public ByteArrayStream(byte[] buffer, int offset, int length) {
+			if (offset < 0 || length < 0 || offset + length > buffer.length) {
+				throw new IndexOutOfBoundsException("Range [" + offset + ", " + (offset + length) + ") is out of array bounds");
+			}
+			this.buffer = buffer;
+			this.offset = offset;
+			bufPos = 0;
+			bufLimit = length;
+			limit = length;
+		}
+
+		@Override
+		public int readTag() throws IOException {
+			if (bufPos == bufLimit || bufPos == limit) {
+				return 0;
+			}
+			int tag = readRawVarint32();
+			if ((tag >>> TAG_TYPE_BITS) == 0) {
+				throw ProtocolBufferWireFormatException.invalidTag(tag);
+			}
+			return tag;
+		}
+
+		@Override
+		public int readRawVarint32() throws IOException {
+			// single byte varints (most tags and small values) do not need word load
+			if (bufPos < bufLimit) {
+				final byte b = buffer[offset + bufPos];
+				if (b >= 0) {
+					++bufPos;
+					return b;
+				}
+			}
+			return super.readRawVarint32();
+		}
+
+		@Override
+		protected long wordAt(int pos) {
+			final byte[] buf = buffer;
+			final int p = offset + pos;
+			return (((long) buf[p] & 0xff)) | (((long) buf[p + 1] & 0xff) << 8)
+					| (((long) buf[p + 2] & 0xff) << 16) | (((long) buf[p + 3] & 0xff) << 24)
+					| (((long) buf[p + 4] & 0xff) << 32) | (((long) buf[p + 5] & 0xff) << 40)
+					| (((long) buf[p + 6] & 0xff) << 48) | (((long) buf[p + 7] & 0xff) << 56);
+		}
+
+		@Override
+		public int readRawLittleEndian32() throws IOException {
+			if (bufLimit - bufPos < 4) {
+				throw ProtocolBufferWireFormatException.truncatedMessage();
+			}
+			final byte[] buf = buffer;
+			final int p = offset + bufPos;
+			bufPos += 4;
+			return (((int) buf[p] & 0xff)) | (((int) buf[p + 1] & 0xff) << 8)
+					| (((int) buf[p + 2] & 0xff) << 16) | (((int) buf[p + 3] & 0xff) << 24);
+		}
+
+		@Override
+		public long readRawLittleEndian64() throws IOException {
+			if (bufLimit - bufPos < 8) {
+				throw ProtocolBufferWireFormatException.truncatedMessage();
+			}
+			final byte[] buf = buffer;
+			final int p = offset + bufPos;
+			bufPos += 8;
+			return (((long) buf[p] & 0xff)) | (((long) buf[p + 1] & 0xff) << 8)
+					| (((long) buf[p + 2] & 0xff) << 16) | (((long) buf[p + 3] & 0xff) << 24)
+					| (((long) buf[p + 4] & 0xff) << 32) | (((long) buf[p + 5] & 0xff) << 40)
+					| (((long) buf[p + 6] & 0xff) << 48) | (((long) buf[p + 7] & 0xff) << 56);
+		}
+
+		@Override
+		public byte readRawByte() throws IOException {
+			if (bufPos >= bufLimit) {
+				throw ProtocolBufferWireFormatException.truncatedMessage();
+			}
+			return buffer[offset + bufPos++];
+		}
+
+		@Override
+		protected byte byteAt(int pos) {
+			if (pos >= bufLimit) {
+				throw new IndexOutOfBoundsException();
+			}
+			return buffer[offset + pos];
+		}
+
+		@Override
+		protected ByteBuffer asBuffer(int pos, int size) {
+			return ByteBuffer.wrap(buffer, offset + pos, size).slice();
+		}
+
+		@Override
+		protected Blob copyAsBlob(int pos, int size) {
+			return new Blob(buffer, offset + pos, size);
+		}
+
+		@Override
+		protected String copyAsString(int pos, int size, StringCache cache) {
+			return cache.decode(buffer, offset + pos, size);
+		}
+
+		@Override
+		protected Utf8String copyAsUtf8String(int pos, int size) {
+			// no copy, view refers to source array
+			return new Utf8String(buffer, offset + pos, size);
+		}
+
+		@Override
+		protected String copyAsString(int pos, int size) {
+			return new String(buffer, offset + pos, size, UTF8);
+		}
+
+		@Override
+		protected byte[] copyAsBytes(int pos, int size) {
+			return Arrays.copyOfRange(buffer, offset + pos, offset + pos + size);
+		}
+	}
+
+	/**
+	 * Forward only stream over {@link InputStream}, only a window of data is kept in memory.
+	 * <p>
+	 * Window retains bytes starting from last read tag, so repositioning within current field
+	 * is possible, but earlier data is discarded. Skipped fields are skipped in
+	 * underlying stream without buffering and cannot be revisited. Thus window size is bounded by largest field
+	 * being decoded rather than by message size.
+	 * <p>
+	 * Methods which could not declare {@link IOException} report input errors wrapped
+	 * into {@link StreamFailure}.
+	 */
+	public static class WindowedStream extends ProtoBufCodedStream {
+
+		private static Charset UTF8 = Charset.forName("UTF8");
+
+		private final InputStream input;
+		private byte[] window;
+		// absolute position of window[0]
+		private int windowStart;
+		// absolute position of end of buffered data
+		private int windowEnd;
+		// start of data which should be retained
+		private int mark;
+		private boolean eof;
+		private int maxWindowSize;
+
+		/**
+		 * Message spans till end of input.
+		 */
+		public WindowedStream(InputStream input, int initialWindow) {
+			this.input = input;
+			this.window = new byte[Math.max(16, initialWindow)];
+			this.maxWindowSize = window.length;
+			bufPos = 0;
+			bufLimit = 0;
+		}
+
+		/**
+		 * @return largest size window has grown to
+		 */
+		public int getMaxWindowSize() {
+			return maxWindowSize;
+		}
+
+		@Override
+		public int readTag() throws IOException {
+			mark = bufPos;
+			return super.readTag();
+		}
+
+		@Override
+		public boolean isAtEnd() throws IOException {
+			if (bufPos == limit) {
+				return true;
+			}
+			else if (bufPos < windowEnd) {
+				return false;
+			}
+			else {
+				return !fill(bufPos, 1);
+			}
+		}
+
+		@Override
+		public void popLimit(int oldLimit) {
+			// data limit is unknown till end of input
+			limit = oldLimit;
+		}
+
+		@Override
+		public byte readRawByte() throws IOException {
+			ensure(bufPos, 1);
+			return window[bufPos++ - windowStart];
+		}
+
+		@Override
+		protected byte byteAt(int pos) {
+			if (pos < windowStart || pos >= windowEnd) {
+				throw new IndexOutOfBoundsException("Position " + pos + " is out of window");
+			}
+			return window[pos - windowStart];
+		}
+
+		@Override
+		protected long wordAt(int pos) {
+			// fast path is taken only if 8 bytes are buffered (bufLimit == windowEnd)
+			final byte[] buf = window;
+			final int p = pos - windowStart;
+			return (((long) buf[p] & 0xff)) | (((long) buf[p + 1] & 0xff) << 8)
+					| (((long) buf[p + 2] & 0xff) << 16) | (((long) buf[p + 3] & 0xff) << 24)
+					| (((long) buf[p + 4] & 0xff) << 32) | (((long) buf[p + 5] & 0xff) << 40)
+					| (((long) buf[p + 6] & 0xff) << 48) | (((long) buf[p + 7] & 0xff) << 56);
+		}
+
+		@Override
+		protected ByteBuffer asBuffer(int pos, int size) {
+			return ByteBuffer.wrap(copyAsBytes(pos, size));
+		}
+
+		@Override
+		protected String copyAsString(int pos, int size) {
+			require(pos, size);
+			return new String(window, pos - windowStart, size, UTF8);
+		}
+
+		@Override
+		protected String copyAsString(int pos, int size, StringCache cache) {
+			require(pos, size);
+			return cache.decode(window, pos - windowStart, size);
+		}
+
+		@Override
+		protected byte[] copyAsBytes(int pos, int size) {
+			require(pos, size);
+			int p = pos - windowStart;
+			return Arrays.copyOfRange(window, p, p + size);
+		}
+
+		private void require(int pos, int size) {
+			try {
+				ensure(pos, size);
+			} catch (IOException e) {
+				throw new StreamFailure(e);
+			}
+		}
+
+		private void ensure(int pos, int size) throws IOException {
+			if (!fill(pos, size)) {
+				throw ProtocolBufferWireFormatException.truncatedMessage();
+			}
+		}
+
+		/**
+		 * Makes range available in window.
+		 * @return <code>false</code> if input has ended before range end
+		 */
+		private boolean fill(int pos, int size) throws IOException {
+			if (pos < windowStart) {
+				throw new IllegalStateException("Position " + pos + " is already discarded from stream window");
+			}
+			int end = pos + size;
+			if (end <= windowEnd) {
+				return true;
+			}
+			// if skipped bytes were never read, window cannot be kept continuous without reading them
+			int keep = pos > windowEnd ? pos : Math.max(windowStart, Math.min(pos, mark));
+			if (keep >= windowEnd) {
+				// whole window is obsolete, bytes before keep are skipped without buffering
+				skipInput(keep - windowEnd);
+				windowStart = windowEnd = keep;
+			}
+			else if (keep > windowStart) {
+				System.arraycopy(window, keep - windowStart, window, 0, windowEnd - keep);
+				windowStart = keep;
+			}
+			if (end - windowStart > window.length) {
+				window = Arrays.copyOf(window, Math.max(end - windowStart, 2 * window.length));
+				maxWindowSize = Math.max(maxWindowSize, window.length);
+			}
+			while(windowEnd < end && !eof) {
+				int n = input.read(window, windowEnd - windowStart, window.length - (windowEnd - windowStart));
+				if (n < 0) {
+					eof = true;
+				}
+				else {
+					windowEnd += n;
+				}
+			}
+			bufLimit = windowEnd;
+			return windowEnd >= end;
+		}
+
+		/**
+		 * Skips bytes of input, input ending before all bytes are skipped is reported as truncated message.
+		 */
+		private void skipInput(int n) throws IOException {
+			while(n > 0) {
+				// last byte is always read, some streams (e.g. FileInputStream) may skip beyond end of data
+				long s = eof || n == 1 ? 0 : input.skip(n - 1);
+				if (s > 0) {
+					n -= s;
+				}
+				else {
+					// skip() is not obliged to make progress, fall back to read
+					int r = eof ? -1 : input.read(window, 0, Math.min(n, window.length));
+					if (r < 0) {
+						eof = true;
+						throw ProtocolBufferWireFormatException.truncatedMessage();
+					}
+					else {
+						n -= r;
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Wraps {@link IOException} of underlying input thrown from method without <code>throws</code> clause.
+	 */
+	public static class StreamFailure extends RuntimeException {
+
+		private static final long serialVersionUID = 20140301L;
+
+		public StreamFailure(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public IOException getCause() {
+			return (IOException) super.getCause();
+		}
 	}
 }
@@ -3,19 +3,17 @@ package org.gridkit.data.extractors.protobuf;
 import java.io.IOException;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
 import java.util.Arrays;
 
 import org.gridkit.data.extractors.common.BinaryExtractor;
 import org.gridkit.data.extractors.common.BinaryExtractorSet;
 import org.gridkit.data.extractors.common.Blob;
+import org.gridkit.data.extractors.common.Utf8String;
 
 public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 
 	private static final long serialVersionUID = 20130125L;
 
-	private static final Charset UTF8 = Charset.forName("UTF8");
-	
 	public static ProtoBufExtractor<Blob> newBlobExtractor(int... path) {
 		return new ProtoBufExtractor<Blob>(path, Encoding.BLOB);
 	}
@@ -52,11 +50,59 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 		return new ProtoBufExtractor<String>(path, Encoding.UTF8);
 	}
 
+	/**
+	 * Extracts string field as {@link Utf8String} view, which could be compared
+	 * with {@link String}s without decoding. For heap buffers view refers to
+	 * source binary instead of copying it.
+	 */
+	public static ProtoBufExtractor<Utf8String> utf8(int... path) {
+		return new ProtoBufExtractor<Utf8String>(path, Encoding.UTF8_VIEW);
+	}
+
+	/**
+	 * Collects all occurrences of repeated int32/uint32/enum field,
+	 * both packed and unpacked encodings are accepted.
+	 */
+	public static ProtoBufExtractor<int[]> int32Array(int... path) {
+		return new ProtoBufExtractor<int[]>(path, Encoding.INT32_ARRAY);
+	}
+
+	public static ProtoBufExtractor<int[]> sint32Array(int... path) {
+		return new ProtoBufExtractor<int[]>(path, Encoding.SINT32_ARRAY);
+	}
+
+	public static ProtoBufExtractor<int[]> fixed32Array(int... path) {
+		return new ProtoBufExtractor<int[]>(path, Encoding.FIXED32_ARRAY);
+	}
+
+	public static ProtoBufExtractor<long[]> int64Array(int... path) {
+		return new ProtoBufExtractor<long[]>(path, Encoding.INT64_ARRAY);
+	}
+
+	public static ProtoBufExtractor<long[]> sint64Array(int... path) {
+		return new ProtoBufExtractor<long[]>(path, Encoding.SINT64_ARRAY);
+	}
+
+	public static ProtoBufExtractor<long[]> fixed64Array(int... path) {
+		return new ProtoBufExtractor<long[]>(path, Encoding.FIXED64_ARRAY);
+	}
+
+	public static ProtoBufExtractor<double[]> doubleArray(int... path) {
+		return new ProtoBufExtractor<double[]>(path, Encoding.DOUBLE_ARRAY);
+	}
+
+	/**
+	 * Collects repeated float field, values are widened to double.
+	 */
+	public static ProtoBufExtractor<double[]> floatArray(int... path) {
+		return new ProtoBufExtractor<double[]>(path, Encoding.FLOAT_ARRAY);
+	}
+
 	enum Encoding implements Encoder {
 		SINGNED_INT32 {
 			@Override
-			public Object decode(int wireType, ByteBuffer buffer) throws IOException {
-				return decodeSignedInt(wireType, buffer);
+			public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException {
+				return decodeSignedInt(wireType, stream);
 			}
 
 			@Override
@@ -66,8 +112,8 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 		},
 		UNSIGNED_INT32 {
 			@Override
-			public Object decode(int wireType, ByteBuffer buffer) throws IOException {
-				return decodeUnsignedInt(wireType, buffer);
+			public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException {
+				return decodeUnsignedInt(wireType, stream);
 			}
 
 			@Override
@@ -77,8 +123,8 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 		},
 		SINGNED_INT64 {
 			@Override
-			public Object decode(int wireType, ByteBuffer buffer) throws IOException {
-				return decodeSignedLong(wireType, buffer);
+			public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException {
+				return decodeSignedLong(wireType, stream);
 			}
 
 			@Override
@@ -88,8 +134,8 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 		},
 		UNSIGNED_INT64{
 			@Override
-			public Object decode(int wireType, ByteBuffer buffer) throws IOException {
-				return decodeUnsignedLong(wireType, buffer);
+			public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException {
+				return decodeUnsignedLong(wireType, stream);
 			}
 
 			@Override
@@ -99,8 +145,8 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 		},
 		FLOATING_POINT{
 			@Override
-			public Object decode(int wireType, ByteBuffer buffer) throws IOException {
-				return decodeFloat(wireType, buffer);
+			public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException {
+				return decodeFloat(wireType, stream);
 			}
 
 			@Override
@@ -110,8 +156,19 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 		},
 		UTF8{
 			@Override
-			public Object decode(int wireType, ByteBuffer buffer) throws IOException {
-				return decodeUTF8(wireType, buffer);
+			public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException {
+				return decodeUTF8(wireType, stream);
+			}
+
+			@Override
+			public String code() {
+				return "s";
+			}
+		},
+		UTF8_VIEW{
+			@Override
+			public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException {
+				return decodeUTF8View(wireType, stream);
 			}
 
 			@Override
@@ -121,8 +178,8 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 		},
 		BLOB{
 			@Override
-			public Object decode(int wireType, ByteBuffer buffer) throws IOException {
-				return decodeBlob(wireType, buffer);
+			public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException {
+				return decodeBlob(wireType, stream);
 			}
 
 			@Override
@@ -132,28 +189,256 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 		},
 		BINARY{
 			@Override
-			public Object decode(int wireType, ByteBuffer buffer) throws IOException {
-				return buffer.slice();
+			public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException {
+				return decodeBinary(wireType, stream);
 			}
 			
 			@Override
 			public String code() {
 				return "b";
 			}
+		},
+		INT32_ARRAY(ProtoBufCodedStream.WIRETYPE_VARINT) {
+			@Override
+			public String code() {
+				return "u[]";
+			}
+		},
+		SINT32_ARRAY(ProtoBufCodedStream.WIRETYPE_VARINT) {
+			@Override
+			public String code() {
+				return "i[]";
+			}
+		},
+		FIXED32_ARRAY(ProtoBufCodedStream.WIRETYPE_FIXED32) {
+			@Override
+			public String code() {
+				return "x[]";
+			}
+		},
+		INT64_ARRAY(ProtoBufCodedStream.WIRETYPE_VARINT) {
+			@Override
+			public String code() {
+				return "uu[]";
+			}
+		},
+		SINT64_ARRAY(ProtoBufCodedStream.WIRETYPE_VARINT) {
+			@Override
+			public String code() {
+				return "ii[]";
+			}
+		},
+		FIXED64_ARRAY(ProtoBufCodedStream.WIRETYPE_FIXED64) {
+			@Override
+			public String code() {
+				return "xx[]";
+			}
+		},
+		DOUBLE_ARRAY(ProtoBufCodedStream.WIRETYPE_FIXED64) {
+			@Override
+			public String code() {
+				return "f[]";
+			}
+		},
+		FLOAT_ARRAY(ProtoBufCodedStream.WIRETYPE_FIXED32) {
+			@Override
+			public String code() {
+				return "f[]";
+			}
 		}
 		;
+		
+		// wire type of packed elements, -1 for non repeated encodings
+		private final int elementWireType;
+		
+		private Encoding() {
+			this(-1);
+		}
+
+		private Encoding(int elementWireType) {
+			this.elementWireType = elementWireType;
+		}
+		
+		/**
+		 * Repeated encodings accumulate all field occurrences in a message
+		 * using {@link #newCollector()}.
+		 */
+		public boolean isRepeated() {
+			return elementWireType >= 0;
+		}
+		
+		public ArrayCollector newCollector() {
+			if (!isRepeated()) {
+				throw new UnsupportedOperationException(this + " is not a repeated encoding");
+			}
+			return new ArrayCollector(this);
+		}
+
+		/**
+		 * Repeated encodings decode single occurrence to an array.
+		 */
+		public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException {
+			ArrayCollector collector = newCollector();
+			collector.collect(wireType, stream);
+			return collector.toArray();
+		}
+		
 		public abstract String code();
 	}
 	
+	/**
+	 * Accumulates values of repeated primitive field into an array without boxing.
+	 * Packed (length delimited) and plain occurrences could be mixed.
+	 */
+	static class ArrayCollector {
+		
+		private static final int INITIAL_CAPACITY = 8;
+		
+		private final Encoding encoding;
+		private int[] ints;
+		private long[] longs;
+		private double[] doubles;
+		private int size;
+		
+		ArrayCollector(Encoding encoding) {
+			this.encoding = encoding;
+		}
+		
+		/**
+		 * Stream should be positioned after field tag.
+		 */
+		public void collect(int wireType, ProtoBufCodedStream stream) throws IOException {
+			int wireFormat = wireType & 0x7;
+			if (wireFormat == ProtoBufCodedStream.WIRETYPE_LENGTH_DELIMITED) {
+				int len = stream.readRawVarint32();
+				int limit = stream.pushLimit(len);
+				int ewt = encoding.elementWireType;
+				// fixed width elements could be sized exactly
+				ensureCapacity(size + (ewt == ProtoBufCodedStream.WIRETYPE_FIXED32 ? len >> 2 : ewt == ProtoBufCodedStream.WIRETYPE_FIXED64 ? len >> 3 : 1));
+				while(!stream.isAtEnd()) {
+					readElement(ewt, stream);
+				}
+				stream.popLimit(limit);
+			}
+			else {
+				readElement(wireFormat, stream);
+			}
+		}
+		
+		private void readElement(int wireFormat, ProtoBufCodedStream stream) throws IOException {
+			switch(encoding) {
+			case INT32_ARRAY:
+			case FIXED32_ARRAY:
+				addInt(decodeUnsignedInt(wireFormat, stream));
+				break;
+			case SINT32_ARRAY:
+				addInt(decodeSignedInt(wireFormat, stream));
+				break;
+			case INT64_ARRAY:
+			case FIXED64_ARRAY:
+				addLong(decodeUnsignedLong(wireFormat, stream));
+				break;
+			case SINT64_ARRAY:
+				addLong(decodeSignedLong(wireFormat, stream));
+				break;
+			case DOUBLE_ARRAY:
+			case FLOAT_ARRAY:
+				addDouble(decodeDouble(wireFormat, stream));
+				break;
+			default:
+				throw new IllegalArgumentException("Not a repeated encoding " + encoding);
+			}
+		}
+
+		private void ensureCapacity(int capacity) {
+			switch(encoding) {
+			case INT32_ARRAY:
+			case SINT32_ARRAY:
+			case FIXED32_ARRAY:
+				if (ints == null) {
+					ints = new int[Math.max(INITIAL_CAPACITY, capacity)];
+				}
+				else if (ints.length < capacity) {
+					ints = Arrays.copyOf(ints, Math.max(ints.length * 2, capacity));
+				}
+				break;
+			case INT64_ARRAY:
+			case SINT64_ARRAY:
+			case FIXED64_ARRAY:
+				if (longs == null) {
+					longs = new long[Math.max(INITIAL_CAPACITY, capacity)];
+				}
+				else if (longs.length < capacity) {
+					longs = Arrays.copyOf(longs, Math.max(longs.length * 2, capacity));
+				}
+				break;
+			default:
+				if (doubles == null) {
+					doubles = new double[Math.max(INITIAL_CAPACITY, capacity)];
+				}
+				else if (doubles.length < capacity) {
+					doubles = Arrays.copyOf(doubles, Math.max(doubles.length * 2, capacity));
+				}
+			}
+		}
+		
+		private void addInt(int v) {
+			if (ints == null || size == ints.length) {
+				ensureCapacity(size + 1);
+			}
+			ints[size++] = v;
+		}
+
+		private void addLong(long v) {
+			if (longs == null || size == longs.length) {
+				ensureCapacity(size + 1);
+			}
+			longs[size++] = v;
+		}
+
+		private void addDouble(double v) {
+			if (doubles == null || size == doubles.length) {
+				ensureCapacity(size + 1);
+			}
+			doubles[size++] = v;
+		}
+		
+		public int size() {
+			return size;
+		}
+		
+		/**
+		 * @return <code>int[]</code>, <code>long[]</code> or <code>double[]</code> depending on encoding
+		 */
+		public Object toArray() {
+			switch(encoding) {
+			case INT32_ARRAY:
+			case SINT32_ARRAY:
+			case FIXED32_ARRAY:
+				return ints == null ? new int[0] : ints.length == size ? ints : Arrays.copyOf(ints, size);
+			case INT64_ARRAY:
+			case SINT64_ARRAY:
+			case FIXED64_ARRAY:
+				return longs == null ? new long[0] : longs.length == size ? longs : Arrays.copyOf(longs, size);
+			default:
+				return doubles == null ? new double[0] : doubles.length == size ? doubles : Arrays.copyOf(doubles, size);
+			}
+		}
+	}
+	
 	private final int[] path;
 	private final Encoding encoding;
 	private final BinaryExtractor<V> nested;
+	private final boolean singular;
+	private final int stringCacheSize;
 
 	// copy constructor
-	private ProtoBufExtractor(int[] path, Encoding encoding, BinaryExtractor<V> nested) {
+	private ProtoBufExtractor(int[] path, Encoding encoding, BinaryExtractor<V> nested, boolean singular, int stringCacheSize) {
 		this.path = path;
 		this.encoding = encoding;
 		this.nested = nested;
+		this.singular = singular;
+		this.stringCacheSize = stringCacheSize;
 	}
 
 	/**
@@ -172,6 +457,8 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 		this.path = path;
 		this.encoding = encoding;
 		this.nested = null; 
+		this.singular = false;
+		this.stringCacheSize = 0;
 	}
 
 	/**
@@ -190,10 +477,56 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 		this.path = path;
 		this.encoding = null;
 		this.nested = nested; 
+		this.singular = false;
+		this.stringCacheSize = 0;
+	}
+
+	/**
+	 * Declares all fields on extractor's path as single-valued (non-repeated).
+	 * <p>
+	 * If every field requested from a message is declared single-valued,
+	 * message parsing stops as soon as all of them have been seen,
+	 * rest of message is skipped without parsing.
+	 * <p>
+	 * If field still occurs multiple times in a message, only first
+	 * occurrence will be processed (protobuf itself would use last one).
+	 * 
+	 * @return copy of this extractor with single-valued path
+	 */
+	public ProtoBufExtractor<V> singular() {
+		return new ProtoBufExtractor<V>(path, encoding, nested, true, stringCacheSize);
+	}
+	
+	protected boolean isSingular() {
+		return singular;
+	}
+
+	/**
+	 * Enables deduplication of extracted strings, useful for low cardinality fields.
+	 * <p>
+	 * Decoded strings are kept in a bounded cache keyed by their UTF-8 bytes,
+	 * repeated values are returned as same {@link String} instance without decoding.
+	 * Cache belongs to extractor set and is shared by all extractors of same field.
+	 * 
+	 * @param cacheSize - max number of cached strings (rounded up to power of 2)
+	 * @return copy of this extractor with string cache enabled
+	 */
+	public ProtoBufExtractor<V> deduplicate(int cacheSize) {
+		if (encoding != Encoding.UTF8) {
+			throw new IllegalArgumentException("Deduplication is supported only for string extractors");
+		}
+		if (cacheSize <= 0) {
+			throw new IllegalArgumentException("Cache size should be positive: " + cacheSize);
+		}
+		return new ProtoBufExtractor<V>(path, encoding, nested, singular, cacheSize);
+	}
+	
+	protected int getStringCacheSize() {
+		return stringCacheSize;
 	}
 	
 	protected boolean isLengthDelimited() {
-		return encoding == null || encoding == Encoding.UTF8 || encoding == Encoding.BLOB;
+		return encoding == null || encoding == Encoding.UTF8 || encoding == Encoding.UTF8_VIEW || encoding == Encoding.BLOB;
 	}
 	
 	protected boolean isLeaf() {
@@ -207,7 +540,7 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 	protected ProtoBufExtractor<V> trim() {
 		int[] subpath = new int[path.length - 1];
 		System.arraycopy(path, 1, subpath, 0, subpath.length);
-		return new ProtoBufExtractor<V>(subpath, encoding, nested);
+		return new ProtoBufExtractor<V>(subpath, encoding, nested, singular, stringCacheSize);
 		
 	}
 	
@@ -245,89 +578,136 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 //		}
 //	}
 //	
-	private static int decodeSignedInt(int wireType, ByteBuffer buffer) throws IOException {
+	private static int decodeSignedInt(int wireType, ProtoBufCodedStream stream) throws IOException {
 		int wireFormat = wireType & 0x7;
 		switch(wireFormat) {
 		case ProtoBufCodedStream.WIRETYPE_VARINT:
-			return PBHelper.inputStream(buffer).readSInt32();
+			return stream.readSInt32();
 		case ProtoBufCodedStream.WIRETYPE_FIXED32:
-			return PBHelper.inputStream(buffer).readFixed32();
+			return stream.readFixed32();
 		case ProtoBufCodedStream.WIRETYPE_FIXED64:
-			return (int) PBHelper.inputStream(buffer).readFixed64();
+			return (int) stream.readFixed64();
 		default:
 			throw new IOException("Wire format " + wireFormat + " cannot be interpreted as integer");
 		}
 	}
 
-	private static int decodeUnsignedInt(int wireType, ByteBuffer buffer) throws IOException {
+	private static int decodeUnsignedInt(int wireType, ProtoBufCodedStream stream) throws IOException {
 		int wireFormat = wireType & 0x7;
 		switch(wireFormat) {
 		case ProtoBufCodedStream.WIRETYPE_VARINT:
-			return PBHelper.inputStream(buffer).readInt32();
+			return stream.readInt32();
 		case ProtoBufCodedStream.WIRETYPE_FIXED32:
-			return PBHelper.inputStream(buffer).readFixed32();
+			return stream.readFixed32();
 		case ProtoBufCodedStream.WIRETYPE_FIXED64:
-			return (int) PBHelper.inputStream(buffer).readFixed64();
+			return (int) stream.readFixed64();
 		default:
 			throw new IOException("Wire format " + wireFormat + " cannot be interpreted as integer");
 		}
 	}
 
-	private static long decodeSignedLong(int wireType, ByteBuffer buffer) throws IOException {
+	private static long decodeSignedLong(int wireType, ProtoBufCodedStream stream) throws IOException {
 		int wireFormat = wireType & 0x7;
 		switch(wireFormat) {
 		case ProtoBufCodedStream.WIRETYPE_VARINT:
-			return PBHelper.inputStream(buffer).readSInt64();
+			return stream.readSInt64();
 		case ProtoBufCodedStream.WIRETYPE_FIXED32:
-			return PBHelper.inputStream(buffer).readFixed32();
+			return stream.readFixed32();
 		case ProtoBufCodedStream.WIRETYPE_FIXED64:
-			return PBHelper.inputStream(buffer).readFixed64();
+			return stream.readFixed64();
 		default:
 			throw new IOException("Wire format " + wireFormat + " cannot be interpreted as integer");
 		}
 	}
 	
-	private static long decodeUnsignedLong(int wireType, ByteBuffer buffer) throws IOException {
+	private static long decodeUnsignedLong(int wireType, ProtoBufCodedStream stream) throws IOException {
 		int wireFormat = wireType & 0x7;
 		switch(wireFormat) {
 		case ProtoBufCodedStream.WIRETYPE_VARINT:
-			return PBHelper.inputStream(buffer).readInt64();
+			return stream.readInt64();
 		case ProtoBufCodedStream.WIRETYPE_FIXED32:
-			return PBHelper.inputStream(buffer).readFixed32();
+			return stream.readFixed32();
 		case ProtoBufCodedStream.WIRETYPE_FIXED64:
-			return PBHelper.inputStream(buffer).readFixed64();
+			return stream.readFixed64();
 		default:
 			throw new IOException("Wire format " + wireFormat + " cannot be interpreted as integer");
 		}
 	}
 
-	private static Object decodeFloat(int wireType, ByteBuffer buffer) throws IOException {
+	private static Object decodeFloat(int wireType, ProtoBufCodedStream stream) throws IOException {
+		int wireFormat = wireType & 0x7;
+		switch(wireFormat) {
+		case ProtoBufCodedStream.WIRETYPE_FIXED32:
+			return stream.readFloat();
+		case ProtoBufCodedStream.WIRETYPE_FIXED64:
+			return stream.readDouble();
+		default:
+			throw new IOException("Wire format " + wireFormat + " cannot be interpreted as floating point");
+		}
+	}
+
+	private static double decodeDouble(int wireType, ProtoBufCodedStream stream) throws IOException {
 		int wireFormat = wireType & 0x7;
 		switch(wireFormat) {
 		case ProtoBufCodedStream.WIRETYPE_FIXED32:
-			return PBHelper.inputStream(buffer).readFloat();
+			return stream.readFloat();
 		case ProtoBufCodedStream.WIRETYPE_FIXED64:
-			return PBHelper.inputStream(buffer).readDouble();
+			return stream.readDouble();
 		default:
 			throw new IOException("Wire format " + wireFormat + " cannot be interpreted as floating point");
 		}
 	}
 
-	private static String decodeUTF8(int wireType, ByteBuffer buffer) throws IOException {
+	private static String decodeUTF8(int wireType, ProtoBufCodedStream stream) throws IOException {
 		int wireFormat = wireType & 0x7;
 		switch(wireFormat) {
 		case ProtoBufCodedStream.WIRETYPE_LENGTH_DELIMITED:
-			return UTF8.decode(buffer).toString();
+			return stream.readString();
 		default:
 			throw new IOException("Wire format " + wireFormat + " cannot be interpreted as floating point");
 		}
 	}
 
-	private static Object decodeBlob(int wireType, ByteBuffer buffer) throws IOException {
+	static String decodeUTF8(int wireType, ProtoBufCodedStream stream, StringCache cache) throws IOException {
 		int wireFormat = wireType & 0x7;
 		switch(wireFormat) {
 		case ProtoBufCodedStream.WIRETYPE_LENGTH_DELIMITED:
-			return new Blob(buffer);
+			return stream.readString(cache);
+		default:
+			throw new IOException("Wire format " + wireFormat + " cannot be interpreted as string");
+		}
+	}
+
+	private static Utf8String decodeUTF8View(int wireType, ProtoBufCodedStream stream) throws IOException {
+		int wireFormat = wireType & 0x7;
+		switch(wireFormat) {
+		case ProtoBufCodedStream.WIRETYPE_LENGTH_DELIMITED:
+			return stream.readUtf8String();
+		default:
+			throw new IOException("Wire format " + wireFormat + " cannot be interpreted as string");
+		}
+	}
+
+	private static ByteBuffer decodeBinary(int wireType, ProtoBufCodedStream stream) throws IOException {
+		int wireFormat = wireType & 0x7;
+		if (wireFormat == ProtoBufCodedStream.WIRETYPE_LENGTH_DELIMITED) {
+			return stream.readByteBuffer();
+		}
+		else {
+			// raw encoding of primitive field
+			int off = stream.getTotalBytesRead();
+			stream.skipField(wireFormat);
+			int len = stream.getTotalBytesRead() - off;
+			stream.seek(off);
+			return stream.readRawBuffer(len);
+		}
+	}
+
+	private static Object decodeBlob(int wireType, ProtoBufCodedStream stream) throws IOException {
+		int wireFormat = wireType & 0x7;
+		switch(wireFormat) {
+		case ProtoBufCodedStream.WIRETYPE_LENGTH_DELIMITED:
+			return stream.readBlob();
 		default:
 			throw new IOException("Wire format " + wireFormat + " cannot be interpreted as binary");
 		}
@@ -341,6 +721,8 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 				+ ((encoding == null) ? 0 : encoding.hashCode());
 		result = prime * result + ((nested == null) ? 0 : nested.hashCode());
 		result = prime * result + Arrays.hashCode(path);
+		result = prime * result + (singular ? 1231 : 1237);
+		result = prime * result + stringCacheSize;
 		return result;
 	}
 
@@ -363,6 +745,10 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 			return false;
 		if (!Arrays.equals(path, other.path))
 			return false;
+		if (singular != other.singular)
+			return false;
+		if (stringCacheSize != other.stringCacheSize)
+			return false;
 		return true;
 	}
 
@@ -395,14 +781,14 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 			if (nested instanceof ProtoBufExtractor) {
 				ProtoBufExtractor<VV> npbe = (ProtoBufExtractor<VV>)nested;
 				int[] newpath = concat(path, npbe.getPath());
-				return new ProtoBufExtractor<VV>(newpath, npbe.getEncoding(), npbe.getNestedExtractor());
+				return new ProtoBufExtractor<VV>(newpath, npbe.getEncoding(), npbe.getNestedExtractor(), singular && npbe.isSingular(), npbe.getStringCacheSize());
 			}
 			else {
-				return new ProtoBufExtractor<VV>(path, nested);
+				return new ProtoBufExtractor<VV>(path, null, nested, singular, 0);
 			}
 		}
 		else if (encoding == null) {
-			return new ProtoBufExtractor<VV>(path, this.nested.pushDown(nested));
+			return new ProtoBufExtractor<VV>(path, null, this.nested.pushDown(nested), singular, 0);
 		}
 		else {
 			throw new IllegalArgumentException("Cannot push down");
@@ -418,11 +804,11 @@ public class ProtoBufExtractor<V> implements BinaryExtractor<V>, Serializable {
 
 	interface Encoder {
 		
-		public Object decode(int wireType, ByteBuffer buffer) throws IOException;
+		public Object decode(int wireType, ProtoBufCodedStream stream) throws IOException;
 		
 	}
 	
 	public String toString() {
-		return "PB" + (encoding != null ? encoding.code() : "") + Arrays.toString(path) + (nested != null ? "/" + nested.toString() : ""); 
+		return "PB" + (encoding != null ? encoding.code() : "") + Arrays.toString(path) + (singular ? "!" : "") + (stringCacheSize > 0 ? "~" + stringCacheSize : "") + (nested != null ? "/" + nested.toString() : ""); 
 	}
 }
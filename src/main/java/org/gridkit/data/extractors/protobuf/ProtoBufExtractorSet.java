@@ -1,34 +1,63 @@
 package org.gridkit.data.extractors.protobuf;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Serializable;
 import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.TreeMap;
 
 import org.gridkit.data.extractors.common.BinaryExtractor;
-import org.gridkit.data.extractors.common.BinaryExtractorSet;
+import org.gridkit.data.extractors.common.ContextualExtractorSet;
 import org.gridkit.data.extractors.common.BinaryReader;
 import org.gridkit.data.extractors.common.CompositeExtractorSet;
+import org.gridkit.data.extractors.common.MappedFile;
 import org.gridkit.data.extractors.common.VectorResultReceiver;
+import org.gridkit.data.extractors.protobuf.ProtoBufExtractor.ArrayCollector;
 import org.gridkit.data.extractors.protobuf.ProtoBufExtractor.Encoding;
+import org.gridkit.data.extractors.protobuf.ProtoBufFieldIndex.IndexBuilder;
+import org.gridkit.data.extractors.protobuf.ProtoBufFieldIndex.MessageIndex;
 
-public class ProtoBufExtractorSet implements BinaryExtractorSet {
+/**
+ * Compiled set does not change during extraction and could be used by 
+ * multiple threads concurrently.
+ */
+public class ProtoBufExtractorSet implements ContextualExtractorSet<ProtoBufExtractorSet.ExtractionContext> {
+
+	/** Initial window size for {@link #extractStream(InputStream, VectorResultReceiver)}, window grows to fit largest decoded field */
+	private static final int STREAM_WINDOW = 8 << 10;
 
 	private int numExtractors;
+	private int numComposites;
 	private Entry root = new Entry(null, 0);
+	// context is stateless if there are no nested composites, so it is shared
+	private ExtractionContext sharedContext;
+	// dispatch tables are published by volatile write
+	private volatile boolean compiled;
 	
 	@Override
 	public int addExtractor(BinaryExtractor<?> extractor) {
+		if (compiled) {
+			throw new IllegalStateException("Cannot add extractor to a compiled set");
+		}
 		return root.addExtractor((ProtoBufExtractor<?>) extractor);
 	}
 	
 	@Override
-	public void compile() {
-		root.prepare();		
+	public synchronized void compile() {
+		if (!compiled) {
+			root.prepare();
+			if (numComposites == 0) {
+				sharedContext = new ExtractionContext();
+			}
+			compiled = true;
+		}
 	}
 
 	@Override
@@ -38,21 +67,113 @@ public class ProtoBufExtractorSet implements BinaryExtractorSet {
 
 	@Override
 	public void extractAll(Object source, VectorResultReceiver resultReceiver) {
-		ByteBuffer bb;
-		try {
-			bb = (ByteBuffer)source;
-			bb = bb.slice();
-		} catch (ClassCastException e) {
-			throw new ClassCastException("ProtoBufExtractorSet can be applied only to ByteBuffer object");
+		extractAll(source, null, resultReceiver);
+	}
+
+	@Override
+	public void extractAll(Object source, VectorResultReceiver resultReceiver, ExtractionContext context) {
+		extractAll(source, null, resultReceiver, context);
+	}
+
+	@Override
+	public ExtractionContext newContext() {
+		if (!compiled) {
+			throw new IllegalStateException("Extractor set is not compiled");
+		}
+		return sharedContext != null ? sharedContext : new ExtractionContext();
+	}
+
+	/**
+	 * Extracts values using and populating field offset index of source binary.
+	 * Same index could be used by other {@link ProtoBufExtractorSet}s for same binary.
+	 * 
+	 * @param source - {@link ByteBuffer} or {@link BinaryReader} (e.g. obtained from {@link MappedFile})
+	 * @param index - field index of the source, may be <code>null</code>
+	 */
+	public void extractAll(Object source, ProtoBufFieldIndex index, VectorResultReceiver resultReceiver) {
+		extractAll(source, index, resultReceiver, newContext());
+	}
+
+	/**
+	 * Same as {@link #extractAll(Object, ProtoBufFieldIndex, VectorResultReceiver)} but reuses provided context.
+	 * 
+	 * @param context - obtained from {@link #newContext()} of this set, should not be used concurrently
+	 */
+	public void extractAll(Object source, ProtoBufFieldIndex index, VectorResultReceiver resultReceiver, ExtractionContext context) {
+		if (context.getExtractorSet() != this) {
+			throw new IllegalArgumentException("Context belongs to other extractor set");
+		}
+		if (!(source instanceof ByteBuffer) && !(source instanceof BinaryReader)) {
+			throw new ClassCastException("ProtoBufExtractorSet can be applied only to ByteBuffer or BinaryReader object");
+		}
+		if (!compiled) {
+			throw new IllegalStateException("Extractor set is not compiled");
 		}
 		try {
-			ProtoBufCodedStream cis = PBHelper.inputStream(bb);
-			root.extractAll(cis, resultReceiver);
+			ProtoBufCodedStream cis = source instanceof ByteBuffer
+					? PBHelper.inputStream((ByteBuffer)source)
+					: PBHelper.inputStream((BinaryReader)source);
+			if (index == null) {
+				root.extractAll(cis, resultReceiver, context);
+			}
+			else {
+				int length = cis.getBytesUntilLimit();
+				MessageIndex known = index.getRoot(length);
+				MessageIndex mi = root.extractAll(cis, resultReceiver, context, index, known);
+				if (mi != known) {
+					index.setRoot(length, mi);
+				}
+			}
 		} catch (IOException e) {
 			throw new RuntimeException(e);
 		}
 	}
 	
+	/**
+	 * Extracts values from message streamed from input till its end.
+	 * Message is never buffered as a whole, memory footprint is bounded
+	 * by largest extracted field. Unused fields are skipped in input,
+	 * input may be left not fully consumed if all requested fields have been found.
+	 * <p>
+	 * Composite extractors over root message are not supported in this mode, as they require whole message.
+	 */
+	public void extractStream(InputStream input, VectorResultReceiver resultReceiver) throws IOException {
+		if (!compiled) {
+			throw new IllegalStateException("Extractor set is not compiled");
+		}
+		if (root.composite != null) {
+			throw new UnsupportedOperationException("Composite extractors over root message require whole message, use extractAll() with buffer");
+		}
+		ProtoBufCodedStream.WindowedStream cis = new ProtoBufCodedStream.WindowedStream(input, STREAM_WINDOW);
+		try {
+			root.extractAll(cis, resultReceiver, newContext());
+		}
+		catch(ProtoBufCodedStream.StreamFailure e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * Same as {@link #extractStream(InputStream, VectorResultReceiver)}.
+	 */
+	public void extractStream(ReadableByteChannel channel, VectorResultReceiver resultReceiver) throws IOException {
+		extractStream(Channels.newInputStream(channel), resultReceiver);
+	}
+
+	/**
+	 * Creates push style scanner, which is fed by partial chunks of message as they arrive.
+	 * Scanner is not thread safe, but many scanners could share same extractor set.
+	 */
+	public Scanner newScanner(VectorResultReceiver resultReceiver) {
+		if (!compiled) {
+			throw new IllegalStateException("Extractor set is not compiled");
+		}
+		if (root.composite != null) {
+			throw new UnsupportedOperationException("Composite extractors over root message require whole message, use extractAll() with buffer");
+		}
+		return new Scanner(resultReceiver);
+	}
+
 	@Override
 	public void dump(StringBuilder builder) {
 		builder.append("<protobuf-extractor>\n");
@@ -60,6 +181,37 @@ public class ProtoBufExtractorSet implements BinaryExtractorSet {
 		builder.append("</protobuf-extractor>\n");
 	}
 
+	/**
+	 * Per extraction state of {@link ProtoBufExtractorSet}.
+	 * Keeps state of composite extractors applied to nested messages, 
+	 * so it is not allocated for each decoded message.
+	 */
+	public class ExtractionContext {
+
+		// created lazily, indexed by composite entry
+		private final CompositeExtractorSet.ExtractionContext[] composites = new CompositeExtractorSet.ExtractionContext[numComposites];
+		private final Int2Int.Mapper[] mappers = new Int2Int.Mapper[numComposites];
+
+		private ExtractionContext() {
+		}
+
+		private ProtoBufExtractorSet getExtractorSet() {
+			return ProtoBufExtractorSet.this;
+		}
+
+		void extractComposite(Entry entry, ByteBuffer message, VectorResultReceiver receiver) {
+			int n = entry.compositeIndex;
+			if (composites[n] == null) {
+				composites[n] = entry.composite.newContext();
+				mappers[n] = entry.compositeMapping.newMapper();
+			}
+			Int2Int.Mapper mapper = mappers[n];
+			mapper.receiver = receiver;
+			entry.composite.extractAll(message, mapper, composites[n]);
+			mapper.receiver = null;
+		}
+	}
+
 
 
 	private class Entry implements Serializable, Comparable<Entry> {
@@ -74,6 +226,19 @@ public class ProtoBufExtractorSet implements BinaryExtractorSet {
 		private List<PrimitiveSlot> primitiveSlots = new ArrayList<PrimitiveSlot>();
 		private CompositeExtractorSet composite;
 		private Int2Int compositeMapping;
+		// slot of composite state in ExtractionContext
+		private int compositeIndex;
+		
+		// all extractors going through this entry are single-valued
+		private boolean singular = true;
+		
+		// compiled dispatch table
+		private FieldTable<FieldHandler> fieldTable;
+		private FieldHandler[] handlers;
+		// slots accumulating repeated fields till the end of message
+		private PrimitiveSlot[] arraySlots;
+		// bit mask of all handlers, if early scan termination is possible, 0 otherwise
+		private long completeMask;
 		
 		public Entry(Entry parent, int pbIndex) {
 			this.parent = parent;
@@ -111,6 +276,9 @@ public class ProtoBufExtractorSet implements BinaryExtractorSet {
 				if (extractor.getPath().length == 1 && extractor.getEncoding() != null) {
 					Encoding enc = extractor.getEncoding();
 					PrimitiveSlot slot = getPrimitiveSlot(pbi, enc);
+					// repeated encodings always scan whole message
+					slot.singular &= extractor.isSingular() && !enc.isRepeated();
+					slot.stringCacheSize = Math.max(slot.stringCacheSize, extractor.getStringCacheSize());
 					if (slot.outputId == -1) {
 						slot.outputId = numExtractors++;
 					}
@@ -118,6 +286,7 @@ public class ProtoBufExtractorSet implements BinaryExtractorSet {
 				}
 				else {
 					Entry child = getChild(pbi, true);
+					child.singular &= extractor.isSingular();
 					return child.addExtractor(extractor.trim());
 				}
 			}
@@ -136,20 +305,6 @@ public class ProtoBufExtractorSet implements BinaryExtractorSet {
 			return slot;
 		}
 
-		private List<PrimitiveSlot> getPrimitiveSlots(int pbi) {
-			PrimitiveSlot low = new PrimitiveSlot(pbi, Encoding.values()[0]);
-			int l = Collections.binarySearch(primitiveSlots, low);
-			if (l < 0) {
-				l = -(l + 1);				
-			}
-			for(int n = l; n != primitiveSlots.size(); ++n) {
-				if (primitiveSlots.get(n).pbid != pbi) {
-					return primitiveSlots.subList(l, n);
-				}
-			}
-			return primitiveSlots.subList(l, primitiveSlots.size());
-		}
-
 		private Entry getChild(int pbi, boolean create) {
 			Entry entry = childEntries.get(pbi);
 			if (entry == null && create) {
@@ -162,66 +317,210 @@ public class ProtoBufExtractorSet implements BinaryExtractorSet {
 		public void prepare() {
 			if (composite != null) {
 				composite.compile();
+				compositeIndex = numComposites++;
 			}
 			if (childEntries != null) {
 				for(Entry child: childEntries.values()) {
 					child.prepare();
 				}
 			}
+			fieldTable = compileFieldTable();
+		}
+
+		private FieldTable<FieldHandler> compileFieldTable() {
+			Map<Integer, List<PrimitiveSlot>> slotMap = new TreeMap<Integer, List<PrimitiveSlot>>();
+			for(PrimitiveSlot slot: primitiveSlots) {
+				List<PrimitiveSlot> sl = slotMap.get(slot.pbid);
+				if (sl == null) {
+					slotMap.put(slot.pbid, sl = new ArrayList<PrimitiveSlot>());
+				}
+				sl.add(slot);
+			}
+			for(Integer pbid: childEntries.keySet()) {
+				if (!slotMap.containsKey(pbid)) {
+					slotMap.put(pbid, Collections.<PrimitiveSlot>emptyList());
+				}
+			}
+			List<PrimitiveSlot> arrays = new ArrayList<PrimitiveSlot>();
+			for(PrimitiveSlot slot: primitiveSlots) {
+				if (slot.stringCacheSize > 0 && (slot.stringCache == null || slot.stringCache.getCapacity() < slot.stringCacheSize)) {
+					slot.stringCache = new StringCache(slot.stringCacheSize);
+				}
+				if (slot.encoding.isRepeated()) {
+					slot.arrayIndex = arrays.size();
+					arrays.add(slot);
+				}
+			}
+			arraySlots = arrays.toArray(new PrimitiveSlot[arrays.size()]);
+			int[] keys = new int[slotMap.size()];
+			FieldHandler[] handlers = new FieldHandler[slotMap.size()];
+			boolean allSingular = slotMap.size() <= 64;
+			int n = 0;
+			for(Integer pbid: slotMap.keySet()) {
+				List<PrimitiveSlot> sl = slotMap.get(pbid);
+				keys[n] = pbid;
+				// bit is used to track fields already seen during scan
+				long bit = n < 64 ? 1l << n : 0;
+				handlers[n] = new FieldHandler(pbid, sl.toArray(new PrimitiveSlot[sl.size()]), childEntries.get(pbid), bit);
+				allSingular &= handlers[n].isSingular();
+				++n;
+			}
+			completeMask = allSingular && n > 0 ? (n == 64 ? -1l : (1l << n) - 1) : 0;
+			this.handlers = handlers;
+			return new FieldTable<FieldHandler>(keys, handlers);
 		}
 		
-		public void extractAll(ProtoBufCodedStream cis, VectorResultReceiver receiver) throws IOException {
+		public void extractAll(ProtoBufCodedStream cis, VectorResultReceiver receiver, ExtractionContext context) throws IOException {
+			extractAll(cis, receiver, context, null, null);
+		}
+
+		/**
+		 * @param index - field index to populate, may be <code>null</code>
+		 * @param known - already indexed fields of this message, may be <code>null</code>
+		 * @return field index of this message if it is available
+		 */
+		public MessageIndex extractAll(ProtoBufCodedStream cis, VectorResultReceiver receiver, ExtractionContext context, ProtoBufFieldIndex index, MessageIndex known) throws IOException {
 			if (composite != null) {
-				BinaryReader br = cis.limitedReader();
-				composite.extractAll(br.asBuffer(), compositeMapping.newMapper(receiver));
+				int pos = cis.getTotalBytesRead();
+				ByteBuffer bb = cis.readRawBuffer(cis.getBytesUntilLimit());
+				cis.seek(pos);
+				context.extractComposite(this, bb, receiver);
 			}
 			if (primitiveSlots.isEmpty() && childEntries.isEmpty()) {
 				// do not parse fields
 				cis.skipRawBytes(cis.getBytesUntilLimit());
-				return;
+				return known;
 			}
+			ArrayCollector[] collectors = newCollectors();
+			if (known != null && known != MessageIndex.OVERFLOW) {
+				extractIndexed(cis, receiver, context, collectors, index, known);
+				cis.skipRawBytes(cis.getBytesUntilLimit());
+				pushCollectors(collectors, receiver);
+				return known;
+			}
+			IndexBuilder builder = index != null && known == null ? index.newBuilder() : null;
+			FieldTable<FieldHandler> fieldTable = this.fieldTable;
+			// index should cover whole message, so no early termination while building it
+			long completeMask = builder == null ? this.completeMask : 0;
+			long seen = 0;
 			while(!cis.isAtEnd()) {
 				int tag = cis.readTag();
-				int pbId = ProtoBufCodedStream.getTagFieldNumber(tag);
-				int type = tag & 7;
-				switch(type) {
-				case ProtoBufCodedStream.WIRETYPE_VARINT:
-				case ProtoBufCodedStream.WIRETYPE_FIXED32:
-				case ProtoBufCodedStream.WIRETYPE_FIXED64:
-				{
-					BinaryReader reader = cis.limitedReader();
-					int off = cis.getTotalBytesRead();
+				int rn = builder == null ? -1 : builder.add(tag, cis.getTotalBytesRead());
+				FieldHandler handler = fieldTable.get(tag >>> 3);
+				if (handler == null) {
 					cis.skipField(tag);
-					int len = cis.getTotalBytesRead() - off;
-					reader = reader.slice(0, len);
-					processPrimitives(pbId, type, reader, receiver);
-					if (childEntries.containsKey(pbId)) {
-						childEntries.get(pbId).extractAll(PBHelper.inputStream(reader.asBuffer()), receiver);						
+					continue;
+				}
+				// nested messages are not indexed once this message has overflown
+				MessageIndex nested = processField(handler, tag, cis, receiver, context, collectors, rn < 0 ? null : index, null);
+				if (builder != null) {
+					builder.setNested(rn, nested);
+				}
+				if (completeMask != 0) {
+					seen |= handler.bit;
+					if (seen == completeMask) {
+						// all requested fields are resolved, ignore rest of message
+						cis.skipRawBytes(cis.getBytesUntilLimit());
+						break;
 					}
-					break;
 				}
-				case ProtoBufCodedStream.WIRETYPE_LENGTH_DELIMITED:
-				{					
-					int len = cis.readUInt32();
-					BinaryReader reader = cis.limitedReader();
- 					reader = reader.slice(0, len);
-					processPrimitives(pbId, type, reader, receiver);
-					if (childEntries.containsKey(pbId)) {
-						int limit = cis.pushLimit(len);
-						childEntries.get(pbId).extractAll(cis, receiver);
-						cis.skipMessage();
-						cis.popLimit(limit);
+			}
+			pushCollectors(collectors, receiver);
+			return builder == null ? known : builder.build();
+		}
+
+		private ArrayCollector[] newCollectors() {
+			if (arraySlots.length == 0) {
+				return null;
+			}
+			ArrayCollector[] collectors = new ArrayCollector[arraySlots.length];
+			for(int i = 0; i != collectors.length; ++i) {
+				collectors[i] = arraySlots[i].encoding.newCollector();
+			}
+			return collectors;
+		}
+		
+		private void pushCollectors(ArrayCollector[] collectors, VectorResultReceiver receiver) {
+			if (collectors != null) {
+				for(int i = 0; i != collectors.length; ++i) {
+					receiver.push(arraySlots[i].outputId, collectors[i].toArray());
+				}
+			}
+		}
+
+		private void extractIndexed(ProtoBufCodedStream cis, VectorResultReceiver receiver, ExtractionContext context, ArrayCollector[] collectors, ProtoBufFieldIndex index, MessageIndex known) throws IOException {
+			boolean firstOnly = completeMask != 0;
+			for(FieldHandler handler: handlers) {
+				for(int n = known.find(handler.pbid); n < known.size() && known.fieldAt(n) == handler.pbid; ++n) {
+					cis.seek(known.offsetAt(n));
+					MessageIndex nested = processField(handler, known.tagAt(n), cis, receiver, context, collectors, index, known.nestedAt(n));
+					if (nested != null) {
+						known.setNested(n, nested);
 					}
-					else {
-						cis.skipRawBytes(len);
+					if (firstOnly) {
+						break;
 					}
-					break;
-				}	
-				default: 
-					throw new IllegalArgumentException("Unknown wire type " + type);
 				}
 			}
 		}
+
+		/**
+		 * Processes single field, stream should be positioned after field tag.
+		 * @return field index of nested message if any
+		 */
+		private MessageIndex processField(FieldHandler handler, int tag, ProtoBufCodedStream cis, VectorResultReceiver receiver, ExtractionContext context, ArrayCollector[] collectors, ProtoBufFieldIndex index, MessageIndex known) throws IOException {
+			int type = tag & 7;
+			PrimitiveSlot single = handler.single;
+			if (single != null) {
+				// decoder consumes whole field, no need to reposition stream
+				decodeSlot(single, type, cis, receiver, collectors);
+				return null;
+			}
+			switch(type) {
+			case ProtoBufCodedStream.WIRETYPE_VARINT:
+			case ProtoBufCodedStream.WIRETYPE_FIXED32:
+			case ProtoBufCodedStream.WIRETYPE_FIXED64:
+			{
+				int off = cis.getTotalBytesRead();
+				processPrimitives(handler.slots, type, off, cis, receiver, collectors);
+				cis.skipField(tag);
+				Entry child = handler.child;
+				if (child != null) {
+					int len = cis.getTotalBytesRead() - off;
+					cis.seek(off);
+					int limit = cis.pushLimit(len);
+					child.extractAll(cis, receiver, context);
+					cis.skipRawBytes(cis.getBytesUntilLimit());
+					cis.popLimit(limit);
+				}
+				return null;
+			}
+			case ProtoBufCodedStream.WIRETYPE_LENGTH_DELIMITED:
+			{					
+				int off = cis.getTotalBytesRead();
+				int len = cis.readUInt32();
+				if (processPrimitives(handler.slots, type, off, cis, receiver, collectors)) {
+					// slot decoders consume length prefix by themselves
+					cis.seek(off);
+					cis.readUInt32();
+				}
+				Entry child = handler.child;
+				MessageIndex nested = null;
+				if (child != null) {
+					int limit = cis.pushLimit(len);
+					nested = child.extractAll(cis, receiver, context, index, known);
+					cis.skipMessage();
+					cis.popLimit(limit);
+				}
+				else {
+					cis.skipRawBytes(len);
+				}
+				return nested;
+			}	
+			default: 
+				throw new IllegalArgumentException("Unknown wire type " + type);
+			}
+		}
 		
 		public void dump(StringBuilder builder) {
 			if (composite != null) {
@@ -238,10 +537,10 @@ public class ProtoBufExtractorSet implements BinaryExtractorSet {
 				builder.append("<fields>\n");
 				for(PrimitiveSlot slot: primitiveSlots) {
 					String type = slot.encoding.toString().toLowerCase();
-					builder.append("<" + type + " fid=\"" + slot.pbid + "\" outIndex=\"" + slot.outputId + "\"/>\n");
+					builder.append("<" + type + " fid=\"" + slot.pbid + "\" outIndex=\"" + slot.outputId + "\"" + (slot.singular ? " single=\"true\"" : "") + (slot.stringCacheSize > 0 ? " cache=\"" + slot.stringCacheSize + "\"" : "") + "/>\n");
 				}
 				for(Entry child: childEntries.values()) {
-					builder.append("<message fid=\"" + child.pbIndex + "\">\n");
+					builder.append("<message fid=\"" + child.pbIndex + "\"" + (child.singular ? " single=\"true\"" : "") + ">\n");
 					child.dump(builder);
 					builder.append("</message>\n");
 				}				
@@ -249,14 +548,414 @@ public class ProtoBufExtractorSet implements BinaryExtractorSet {
 			}
 		}
 
-		private void processPrimitives(int pbId, int type, BinaryReader reader, VectorResultReceiver receiver) throws IOException {
-			ByteBuffer target = null;
-			for(PrimitiveSlot slot: getPrimitiveSlots(pbId)) {
-				if (target == null) {
-					target = reader.asBuffer();
+		/**
+		 * Decodes field value, stream should be positioned after field tag.
+		 */
+		private void decodeSlot(PrimitiveSlot slot, int type, ProtoBufCodedStream cis, VectorResultReceiver receiver, ArrayCollector[] collectors) throws IOException {
+			if (slot.arrayIndex >= 0) {
+				collectors[slot.arrayIndex].collect(type, cis);
+			}
+			else if (slot.stringCache != null) {
+				receiver.push(slot.outputId, ProtoBufExtractor.decodeUTF8(type, cis, slot.stringCache));
+			}
+			else {
+				receiver.push(slot.outputId, slot.encoding.decode(type, cis));
+			}
+		}
+
+		/**
+		 * Decodes field value in place for each matching slot.
+		 * Stream position is undefined after this call, caller should restore it.
+		 * @return <code>true</code> if any slot was processed 
+		 */
+		private boolean processPrimitives(PrimitiveSlot[] slots, int type, int off, ProtoBufCodedStream cis, VectorResultReceiver receiver, ArrayCollector[] collectors) throws IOException {
+			if (slots.length == 0) {
+				return false;
+			}
+			for(PrimitiveSlot slot: slots) {
+				cis.seek(off);
+				decodeSlot(slot, type, cis, receiver, collectors);
+			}
+			cis.seek(off);
+			return true;
+		}
+	}
+	
+	/**
+	 * Resumable push parser of a single message, state (including nested message stack)
+	 * is kept between {@link #push(byte[], int, int)} calls.
+	 * <p>
+	 * Values are pushed to receiver as soon as field is complete, repeated values are
+	 * pushed at the end of enclosing message. Only fields of interest are buffered, nested
+	 * messages are descended in place, other fields are skipped as they stream by.
+	 * Fields which require several decoders (or nested composite extractors) are buffered whole
+	 * and decoded same way as in {@link ProtoBufExtractorSet#extractAll(Object, VectorResultReceiver)}.
+	 */
+	public class Scanner {
+
+		private static final int S_TAG = 0;
+		private static final int S_LENGTH = 1;
+		private static final int S_SKIP_VARINT = 2;
+		private static final int S_SKIP_BYTES = 3;
+		private static final int S_BUFFER_VARINT = 4;
+		private static final int S_BUFFER_BYTES = 5;
+		private static final int S_DONE = 6;
+
+		private final VectorResultReceiver receiver;
+		private final ExtractionContext context = newContext();
+
+		private Frame[] stack = new Frame[8];
+		private int depth;
+		private long pos;
+		private int state;
+
+		// partial varint
+		private long varint;
+		private int shift;
+
+		// current field
+		private int tag;
+		private FieldHandler handler;
+		private long remaining;
+		private byte[] fieldBuf = new byte[64];
+		private int fieldLen;
+
+		Scanner(VectorResultReceiver receiver) {
+			this.receiver = receiver;
+			reset();
+		}
+
+		/**
+		 * Prepares scanner for next message.
+		 */
+		public void reset() {
+			for(int i = 0; i != stack.length; ++i) {
+				stack[i] = null;
+			}
+			stack[0] = new Frame(root, Long.MAX_VALUE, null);
+			depth = 0;
+			pos = 0;
+			state = S_TAG;
+			varint = 0;
+			shift = 0;
+			handler = null;
+			fieldLen = 0;
+		}
+
+		/**
+		 * @return number of bytes consumed so far
+		 */
+		public long getPosition() {
+			return pos;
+		}
+
+		/**
+		 * @return <code>true</code> if all requested values are already extracted, rest of message could be ignored
+		 */
+		public boolean isComplete() {
+			return state == S_DONE;
+		}
+
+		/**
+		 * Consumes remaining bytes of buffer.
+		 */
+		public void push(ByteBuffer chunk) throws IOException {
+			if (chunk.hasArray()) {
+				push(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+				chunk.position(chunk.limit());
+			}
+			else {
+				byte[] buf = new byte[Math.min(chunk.remaining(), 8 << 10)];
+				while(chunk.hasRemaining()) {
+					int n = Math.min(buf.length, chunk.remaining());
+					chunk.get(buf, 0, n);
+					push(buf, 0, n);
+				}
+			}
+		}
+
+		public void push(byte[] data, int offset, int length) throws IOException {
+			int end = offset + length;
+			int p = offset;
+			while(p < end) {
+				switch(state) {
+				case S_DONE:
+					pos += end - p;
+					return;
+				case S_TAG:
+				case S_LENGTH:
+				case S_SKIP_VARINT:
+				case S_BUFFER_VARINT: {
+					byte b = data[p++];
+					++pos;
+					if (state == S_BUFFER_VARINT || (state == S_LENGTH && handler != null)) {
+						append(b);
+					}
+					if (shift >= 64) {
+						throw ProtocolBufferWireFormatException.malformedVarint();
+					}
+					varint |= (long)(b & 0x7F) << shift;
+					shift += 7;
+					if (b < 0) {
+						continue;
+					}
+					long v = varint;
+					varint = 0;
+					shift = 0;
+					if (state == S_TAG) {
+						onTag((int)v);
+					}
+					else if (state == S_LENGTH) {
+						onLength((int)v);
+					}
+					else if (state == S_SKIP_VARINT) {
+						endOfField(null);
+					}
+					else {
+						decodeField();
+					}
+					break;
+				}
+				case S_SKIP_BYTES: {
+					int n = (int)Math.min(remaining, end - p);
+					p += n;
+					pos += n;
+					remaining -= n;
+					if (remaining == 0) {
+						endOfField(null);
+					}
+					break;
+				}
+				case S_BUFFER_BYTES: {
+					int n = (int)Math.min(remaining, end - p);
+					ensureFieldBuf(fieldLen + n);
+					System.arraycopy(data, p, fieldBuf, fieldLen, n);
+					fieldLen += n;
+					p += n;
+					pos += n;
+					remaining -= n;
+					if (remaining == 0) {
+						decodeField();
+					}
+					break;
+				}
+				default:
+					throw new IllegalStateException("Unknown state " + state);
+				}
+			}
+		}
+
+		/**
+		 * Signals end of message, pushes values accumulated for repeated fields.
+		 * @throws ProtocolBufferWireFormatException if message is truncated
+		 */
+		public void finish() throws IOException {
+			if (state == S_DONE) {
+				return;
+			}
+			if (state != S_TAG || shift != 0 || depth > 0) {
+				throw ProtocolBufferWireFormatException.truncatedMessage();
+			}
+			stack[0].entry.pushCollectors(stack[0].collectors, receiver);
+			state = S_DONE;
+		}
+
+		private void onTag(int tag) throws IOException {
+			if (ProtoBufCodedStream.getTagFieldNumber(tag) == 0) {
+				throw ProtocolBufferWireFormatException.invalidTag(tag);
+			}
+			this.tag = tag;
+			this.handler = stack[depth].entry.fieldTable.get(tag >>> 3);
+			this.fieldLen = 0;
+			switch(tag & 7) {
+			case ProtoBufCodedStream.WIRETYPE_VARINT:
+				state = handler == null ? S_SKIP_VARINT : S_BUFFER_VARINT;
+				break;
+			case ProtoBufCodedStream.WIRETYPE_FIXED64:
+				expect(8);
+				break;
+			case ProtoBufCodedStream.WIRETYPE_FIXED32:
+				expect(4);
+				break;
+			case ProtoBufCodedStream.WIRETYPE_LENGTH_DELIMITED:
+				state = S_LENGTH;
+				break;
+			case ProtoBufCodedStream.WIRETYPE_START_GROUP:
+			case ProtoBufCodedStream.WIRETYPE_END_GROUP:
+				throw ProtocolBufferWireFormatException.groupTagUnsupported();
+			default:
+				throw ProtocolBufferWireFormatException.invalidWireType(tag & 7);
+			}
+		}
+
+		private void onLength(int len) throws IOException {
+			if (len < 0) {
+				throw ProtocolBufferWireFormatException.negativeSize();
+			}
+			if (len > stack[depth].end - pos) {
+				throw ProtocolBufferWireFormatException.truncatedMessage();
+			}
+			FieldHandler h = handler;
+			if (h != null && h.slots.length == 0 && h.child != null && h.child.composite == null) {
+				// nested message is scanned in place
+				pushFrame(new Frame(h.child, pos + len, h));
+				state = S_TAG;
+				endOfField(null);
+			}
+			else {
+				expect(len);
+			}
+		}
+
+		private void expect(int len) throws IOException {
+			remaining = len;
+			if (handler == null) {
+				state = S_SKIP_BYTES;
+			}
+			else {
+				state = S_BUFFER_BYTES;
+			}
+			if (len == 0) {
+				if (handler == null) {
+					endOfField(null);
+				}
+				else {
+					decodeField();
+				}
+			}
+			else if (len > stack[depth].end - pos) {
+				throw ProtocolBufferWireFormatException.truncatedMessage();
+			}
+		}
+
+		private void decodeField() throws IOException {
+			Frame f = stack[depth];
+			// decoded values (buffers, blobs) may be views of data, field buffer is reused only if none of slots retains it
+			byte[] data = handler.viewsData ? Arrays.copyOf(fieldBuf, fieldLen) : fieldBuf;
+			ProtoBufCodedStream cis = new ProtoBufCodedStream.ByteArrayStream(data, 0, fieldLen);
+			f.entry.processField(handler, tag, cis, receiver, context, f.collectors, null, null);
+			endOfField(handler);
+		}
+
+		/**
+		 * Updates state after field (or nested message) is consumed.
+		 */
+		private void endOfField(FieldHandler handler) {
+			state = S_TAG;
+			while(true) {
+				Frame f = stack[depth];
+				if (handler != null && f.completeMask != 0 && f.seen != f.completeMask) {
+					f.seen |= handler.bit;
+					if (f.seen == f.completeMask) {
+						// all requested fields are resolved, ignore rest of message
+						if (depth == 0) {
+							f.entry.pushCollectors(f.collectors, receiver);
+							state = S_DONE;
+							return;
+						}
+						else if (f.end > pos) {
+							remaining = f.end - pos;
+							state = S_SKIP_BYTES;
+							return;
+						}
+					}
+				}
+				if (depth > 0 && f.end == pos) {
+					f.entry.pushCollectors(f.collectors, receiver);
+					stack[depth--] = null;
+					handler = f.handler;
+					state = S_TAG;
+				}
+				else {
+					return;
+				}
+			}
+		}
+
+		private void pushFrame(Frame frame) {
+			if (depth + 1 == stack.length) {
+				stack = Arrays.copyOf(stack, stack.length * 2);
+			}
+			stack[++depth] = frame;
+		}
+
+		private void append(byte b) {
+			ensureFieldBuf(fieldLen + 1);
+			fieldBuf[fieldLen++] = b;
+		}
+
+		private void ensureFieldBuf(int size) {
+			if (size > fieldBuf.length) {
+				fieldBuf = Arrays.copyOf(fieldBuf, Math.max(size, 2 * fieldBuf.length));
+			}
+		}
+	}
+
+	/**
+	 * Message being scanned by {@link Scanner}.
+	 */
+	private class Frame {
+
+		final Entry entry;
+		final long end;
+		// handler of enclosing message this frame belongs to
+		final FieldHandler handler;
+		final ArrayCollector[] collectors;
+		final long completeMask;
+		long seen;
+
+		Frame(Entry entry, long end, FieldHandler handler) {
+			this.entry = entry;
+			this.end = end;
+			this.handler = handler;
+			this.collectors = entry.newCollectors();
+			this.completeMask = entry.completeMask;
+		}
+	}
+
+	/**
+	 * Everything what should be done with a field of a message.
+	 */
+	private static class FieldHandler {
+		
+		final int pbid;
+		final PrimitiveSlot[] slots;
+		final Entry child;
+		final long bit;
+		// set if field has exactly one slot and no nested message, such fields are decoded in place 
+		final PrimitiveSlot single;
+		// set if any of slots or nested message may decode to a view of underlying data
+		final boolean viewsData;
+
+		FieldHandler(int pbid, PrimitiveSlot[] slots, Entry child, long bit) {
+			this.pbid = pbid;
+			this.slots = slots;
+			this.child = child;
+			this.bit = bit;
+			this.single = slots.length == 1 && child == null ? slots[0] : null;
+			// values of nested message (including its composite) are not inspected, they may be views too
+			boolean views = child != null;
+			for(PrimitiveSlot slot: slots) {
+				views |= slot.encoding == Encoding.BINARY || slot.encoding == Encoding.BLOB || slot.encoding == Encoding.UTF8_VIEW;
+			}
+			this.viewsData = views;
+		}
+		
+		boolean isSingular() {
+			if (child != null && !child.singular) {
+				return false;
+			}
+			for(PrimitiveSlot slot: slots) {
+				if (!slot.singular) {
+					return false;
 				}
-				receiver.push(slot.outputId, slot.encoding.decode(type, target));
-			}			
+			}
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "#" + pbid;
 		}
 	}
 	
@@ -265,6 +964,11 @@ public class ProtoBufExtractorSet implements BinaryExtractorSet {
 		private final int pbid;
 		private final ProtoBufExtractor.Encoding encoding;
 		private int outputId = -1;
+		private boolean singular = true;
+		// index in collector array for repeated encodings
+		private int arrayIndex = -1;
+		private int stringCacheSize;
+		private StringCache stringCache;
 		
 		PrimitiveSlot(int pbid, Encoding encoding) {
 			this.pbid = pbid;
@@ -0,0 +1,245 @@
+package org.gridkit.data.extractors.protobuf;
+
+import java.util.Arrays;
+
+/**
+ * <p>
+ * Field offset index for a single protobuf binary.
+ * </p>
+ * <p>
+ * Index is populated as a side effect of {@link ProtoBufExtractorSet#extractAll(Object, ProtoBufFieldIndex, org.gridkit.data.extractors.common.VectorResultReceiver)},
+ * each message scanned in full is recorded as a table of field number to offset.
+ * Later extractions using same index (possibly by other extractor sets) jump directly
+ * to requested fields instead of scanning the message.
+ * Nested messages are indexed once some extractor set has descended into them.
+ * </p>
+ * <p>
+ * Index is bounded by number of field records, messages not fitting into the
+ * remaining capacity are not indexed and will be scanned each time.
+ * </p>
+ * <p>
+ * Index should be kept alongside the binary it was built for, it is not thread safe.
+ * </p>
+ */
+public class ProtoBufFieldIndex {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+
+	private final int capacity;
+	private int used;
+
+	private int rootLength = -1;
+	private MessageIndex root;
+
+	public ProtoBufFieldIndex() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * @param capacity - max number of field records in the index
+	 */
+	public ProtoBufFieldIndex(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("Capacity cannot be negative: " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return number of field records in the index
+	 */
+	public int size() {
+		return used;
+	}
+
+	public void clear() {
+		used = 0;
+		rootLength = -1;
+		root = null;
+	}
+
+	MessageIndex getRoot(int length) {
+		if (rootLength >= 0 && rootLength != length) {
+			throw new IllegalArgumentException("Index was built for binary of different size (" + rootLength + " != " + length + ")");
+		}
+		return root;
+	}
+
+	void setRoot(int length, MessageIndex index) {
+		rootLength = length;
+		root = index;
+	}
+
+	IndexBuilder newBuilder() {
+		return new IndexBuilder();
+	}
+
+	@Override
+	public String toString() {
+		return "ProtoBufFieldIndex[" + used + "/" + capacity + "]";
+	}
+
+	/**
+	 * Field table of a single message. Records are sorted by field number,
+	 * occurrences of same field keep their order.
+	 */
+	static class MessageIndex {
+
+		/** Marker for messages which do not fit into index */
+		static final MessageIndex OVERFLOW = new MessageIndex(new int[0], new int[0], new int[0], 0);
+
+		private final int[] fields;
+		private final int[] tags;
+		private final int[] offsets;
+		private final MessageIndex[] nested;
+		// records of this message and nested messages known at build time
+		private final int records;
+
+		private MessageIndex(int[] fields, int[] tags, int[] offsets, int records) {
+			this.fields = fields;
+			this.tags = tags;
+			this.offsets = offsets;
+			this.nested = new MessageIndex[fields.length];
+			this.records = records;
+		}
+
+		public int size() {
+			return fields.length;
+		}
+
+		/**
+		 * @return index of first record for field or {@link #size()} if field is missing
+		 */
+		public int find(int fieldNumber) {
+			int lo = 0;
+			int hi = fields.length;
+			while(lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (fields[mid] < fieldNumber) {
+					lo = mid + 1;
+				}
+				else {
+					hi = mid;
+				}
+			}
+			return lo < fields.length && fields[lo] == fieldNumber ? lo : fields.length;
+		}
+
+		public int fieldAt(int n) {
+			return fields[n];
+		}
+
+		public int tagAt(int n) {
+			return tags[n];
+		}
+
+		/**
+		 * @return stream position right after field tag
+		 */
+		public int offsetAt(int n) {
+			return offsets[n];
+		}
+
+		public MessageIndex nestedAt(int n) {
+			return nested[n];
+		}
+
+		void setNested(int n, MessageIndex index) {
+			nested[n] = index;
+		}
+
+		@Override
+		public String toString() {
+			return this == OVERFLOW ? "OVERFLOW" : Arrays.toString(fields);
+		}
+	}
+
+	/**
+	 * Collects fields of a message during scan.
+	 * Records are reserved in index as they are added, so capacity is shared with
+	 * builders of nested messages. Overflown builder releases its records,
+	 * including records of nested messages already attached to it.
+	 */
+	class IndexBuilder {
+
+		private int[] tags = new int[8];
+		private int[] offsets = new int[8];
+		private MessageIndex[] nested;
+		private int size;
+		// own and nested records reserved in index
+		private int reserved;
+		private boolean overflow;
+
+		/**
+		 * @return record number or -1 if index capacity is exceeded
+		 */
+		public int add(int tag, int offset) {
+			if (overflow) {
+				return -1;
+			}
+			if (used >= capacity) {
+				overflow = true;
+				used -= reserved;
+				reserved = 0;
+				return -1;
+			}
+			++used;
+			++reserved;
+			if (size == tags.length) {
+				tags = Arrays.copyOf(tags, size * 2);
+				offsets = Arrays.copyOf(offsets, size * 2);
+			}
+			tags[size] = tag;
+			offsets[size] = offset;
+			return size++;
+		}
+
+		public void setNested(int n, MessageIndex index) {
+			if (n >= 0 && index != null) {
+				if (nested == null) {
+					nested = new MessageIndex[tags.length];
+				}
+				else if (nested.length <= n) {
+					nested = Arrays.copyOf(nested, tags.length);
+				}
+				nested[n] = index;
+				reserved += index.records;
+			}
+		}
+
+		public MessageIndex build() {
+			if (overflow) {
+				return MessageIndex.OVERFLOW;
+			}
+			// stable sort by field number
+			long[] order = new long[size];
+			for(int i = 0; i != size; ++i) {
+				order[i] = (((long)(tags[i] >>> ProtoBufCodedStream.TAG_TYPE_BITS)) << 32) | i;
+			}
+			Arrays.sort(order);
+			int[] f = new int[size];
+			int[] t = new int[size];
+			int[] o = new int[size];
+			for(int i = 0; i != size; ++i) {
+				int n = (int)order[i];
+				f[i] = (int)(order[i] >>> 32);
+				t[i] = tags[n];
+				o[i] = offsets[n];
+			}
+			MessageIndex mi = new MessageIndex(f, t, o, reserved);
+			if (nested != null) {
+				for(int i = 0; i != size; ++i) {
+					int n = (int)order[i];
+					if (n < nested.length) {
+						mi.setNested(i, nested[n]);
+					}
+				}
+			}
+			return mi;
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package org.gridkit.data.extractors.protobuf;
+
+import java.nio.charset.Charset;
+
+/**
+ * Bounded direct-mapped cache of decoded strings keyed by their UTF-8 bytes.
+ * Lookup hashes and compares raw bytes, so cache hit does not decode anything
+ * and returns same {@link String} instance each time.
+ * <p>
+ * Entries are immutable, so cache could be shared between threads without locking,
+ * concurrent updates of same bucket just replace each other.
+ */
+class StringCache {
+
+	private static final Charset UTF8 = Charset.forName("UTF8");
+
+	/** Longer strings are decoded without caching */
+	static final int MAX_CACHED_LENGTH = 64;
+
+	private final Entry[] buckets;
+	private final int mask;
+
+	public StringCache(int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity should be positive: " + capacity);
+		}
+		int size = Integer.highestOneBit(capacity);
+		if (size < capacity) {
+			size <<= 1;
+		}
+		buckets = new Entry[size];
+		mask = size - 1;
+	}
+
+	public int getCapacity() {
+		return buckets.length;
+	}
+
+	public String decode(byte[] data, int offset, int length) {
+		if (length > MAX_CACHED_LENGTH) {
+			return new String(data, offset, length, UTF8);
+		}
+		int hash = hash(data, offset, length);
+		int n = hash & mask;
+		Entry e = buckets[n];
+		if (e != null && e.hash == hash && e.matches(data, offset, length)) {
+			return e.value;
+		}
+		String value = new String(data, offset, length, UTF8);
+		byte[] key = new byte[length];
+		System.arraycopy(data, offset, key, 0, length);
+		buckets[n] = new Entry(key, hash, value);
+		return value;
+	}
+
+	private static int hash(byte[] data, int offset, int length) {
+		int h = length;
+		for(int i = 0; i != length; ++i) {
+			h = 31 * h + data[offset + i];
+		}
+		// spread higher bits into bucket index
+		return h ^ (h >>> 16);
+	}
+
+	@Override
+	public String toString() {
+		return "StringCache[" + buckets.length + "]";
+	}
+
+	private static class Entry {
+
+		final byte[] key;
+		final int hash;
+		final String value;
+
+		Entry(byte[] key, int hash, String value) {
+			this.key = key;
+			this.hash = hash;
+			this.value = value;
+		}
+
+		boolean matches(byte[] data, int offset, int length) {
+			if (key.length != length) {
+				return false;
+			}
+			for(int i = 0; i != length; ++i) {
+				if (key[i] != data[offset + i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
@@ -20,6 +20,7 @@ abstract class BaseExtractionAssertTest implements VectorResultReceiver {
 	private Map<String, Integer> extractorMap = new HashMap<String, Integer>();
 	private Map<Integer, Object> resultMap = new HashMap<Integer, Object>();
 	private CompositeExtractorSet extractorSet = new CompositeExtractorSet();
+	private CompositeExtractorSet.ExtractionContext context;
 	
 	protected void addExtractor(String name, BinaryExtractor<?> extractor) {
 		extractorMap.put(name, extractorSet.addExtractor(extractor));
@@ -31,6 +32,27 @@ abstract class BaseExtractionAssertTest implements VectorResultReceiver {
 		extractorSet.extractAll(ByteBuffer.wrap(data), this);
 	}
 
+	protected void extractDirect(byte[] data) {
+		resultMap.clear();
+		extractorSet.compile();
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data);
+		buffer.flip();
+		extractorSet.extractAll(buffer, this);
+	}
+
+	/**
+	 * Same as {@link #extract(byte[])} but reuses extraction context between calls.
+	 */
+	protected void extractWithContext(byte[] data) {
+		resultMap.clear();
+		extractorSet.compile();
+		if (context == null) {
+			context = extractorSet.newContext();
+		}
+		extractorSet.extractAll(ByteBuffer.wrap(data), this, context);
+	}
+
 	protected void extractNamed(String name, byte[] data) {
 		resultMap.clear();
 		extractorSet.compile();
@@ -41,8 +63,12 @@ abstract class BaseExtractionAssertTest implements VectorResultReceiver {
 	}
 	
 	protected void dump() {
+		System.out.println(getDump());
+	}
+
+	protected String getDump() {
 		extractorSet.compile();
-		System.out.println(Extractors.dump(extractorSet, 2));
+		return Extractors.dump(extractorSet, 2);
 	}
 	
 	@Override
@@ -50,6 +76,13 @@ abstract class BaseExtractionAssertTest implements VectorResultReceiver {
 		resultMap.put(id, part);
 	}
 
+	protected Object getValue(String name) {
+		if (!extractorMap.containsKey(name)) {
+			throw new IllegalArgumentException("Extractor '" + name + "' is not defined");
+		}
+		return resultMap.get(extractorMap.get(name));
+	}
+	
 	protected void assertValue(String name, Object value) {
 		if (!extractorMap.containsKey(name)) {
 			throw new IllegalArgumentException("Extractor '" + name + "' is not defined");
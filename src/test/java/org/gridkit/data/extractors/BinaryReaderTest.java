@@ -0,0 +1,167 @@
+package org.gridkit.data.extractors;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.gridkit.data.extractors.common.BinaryReader;
+import org.gridkit.data.extractors.common.ByteArrayReader;
+import org.gridkit.data.extractors.common.ChunkedReader;
+import org.gridkit.data.extractors.common.DirectMemoryReader;
+import org.gridkit.data.extractors.common.ReaderView;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * All {@link BinaryReader} implementations should agree with {@link ByteBuffer}.
+ */
+public class BinaryReaderTest {
+
+	private static byte[] data(int len) {
+		byte[] data = new byte[len];
+		new Random(len).nextBytes(data);
+		return data;
+	}
+
+	private static List<BinaryReader> readers(byte[] data) {
+		List<BinaryReader> readers = new ArrayList<BinaryReader>();
+		readers.add(new BinaryReader.ByteBufferReader(ByteBuffer.wrap(data)));
+		readers.add(new ByteArrayReader(data));
+		if (DirectMemoryReader.isSupported()) {
+			ByteBuffer bb = ByteBuffer.allocateDirect(data.length);
+			bb.put(data);
+			bb.flip();
+			readers.add(new DirectMemoryReader(bb));
+		}
+		readers.add(chunked(data, 1));
+		readers.add(chunked(data, 3));
+		readers.add(chunked(data, 7));
+		readers.add(view(data));
+		return readers;
+	}
+
+	/**
+	 * View over padded data, pointed at data range.
+	 */
+	static ReaderView view(byte[] data) {
+		byte[] padded = new byte[data.length + 10];
+		System.arraycopy(data, 0, padded, 3, data.length);
+		BinaryReader base = new BinaryReader.ByteBufferReader(ByteBuffer.wrap(padded));
+		ReaderView view = new ReaderView(base, 0, 1);
+		return view.point(new ReaderView(base, 1, data.length + 5), 2, data.length);
+	}
+
+	/**
+	 * Splits data into chunks of given size, alternating heap and direct buffers.
+	 */
+	static ChunkedReader chunked(byte[] data, int chunkSize) {
+		List<ByteBuffer> chunks = new ArrayList<ByteBuffer>();
+		for(int i = 0; i < data.length; i += chunkSize) {
+			int len = Math.min(chunkSize, data.length - i);
+			ByteBuffer bb = chunks.size() % 2 == 0 ? ByteBuffer.allocate(len + 2) : ByteBuffer.allocateDirect(len + 2);
+			bb.put((byte)-1);
+			bb.put(data, i, len);
+			bb.flip();
+			bb.get();
+			chunks.add(bb);
+			// empty chunks are ignored
+			chunks.add(ByteBuffer.allocate(0));
+		}
+		return new ChunkedReader(chunks);
+	}
+
+	private static void assertReader(byte[] data, BinaryReader reader) {
+		ByteBuffer be = ByteBuffer.wrap(data).order(ByteOrder.BIG_ENDIAN);
+		ByteBuffer le = ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+		Assert.assertEquals(data.length, reader.length());
+		for(int i = 0; i != data.length; ++i) {
+			Assert.assertEquals(be.get(i), reader.getByte(i));
+			if (i + 2 <= data.length) {
+				Assert.assertEquals(be.getShort(i), reader.getInt16(i));
+				Assert.assertEquals(be.getChar(i), reader.getChar(i));
+				Assert.assertEquals(le.getShort(i), reader.getInt16(i, ByteOrder.LITTLE_ENDIAN));
+			}
+			if (i + 4 <= data.length) {
+				Assert.assertEquals(be.getInt(i), reader.getInt32(i));
+				Assert.assertEquals(le.getInt(i), reader.getInt32(i, ByteOrder.LITTLE_ENDIAN));
+				Assert.assertEquals(Float.floatToRawIntBits(be.getFloat(i)), Float.floatToRawIntBits(reader.getFloat32(i)));
+			}
+			if (i + 8 <= data.length) {
+				Assert.assertEquals(be.getLong(i), reader.getInt64(i));
+				Assert.assertEquals(be.getLong(i), reader.getInt64(i, ByteOrder.BIG_ENDIAN));
+				Assert.assertEquals(le.getLong(i), reader.getInt64(i, ByteOrder.LITTLE_ENDIAN));
+				Assert.assertEquals(Double.doubleToRawLongBits(be.getDouble(i)), Double.doubleToRawLongBits(reader.getFloat64(i)));
+			}
+		}
+		byte[] copy = new byte[data.length];
+		reader.getBytes(copy, 0, 0, data.length);
+		Assert.assertArrayEquals(data, copy);
+		ByteBuffer buf = reader.asBuffer();
+		copy = new byte[buf.remaining()];
+		buf.get(copy);
+		Assert.assertArrayEquals(data, copy);
+	}
+
+	private static byte[] range(byte[] data, int off, int len) {
+		byte[] r = new byte[len];
+		System.arraycopy(data, off, r, 0, len);
+		return r;
+	}
+
+	@Test
+	public void verify_readers() {
+		byte[] data = data(64);
+		for(BinaryReader reader: readers(data)) {
+			assertReader(data, reader);
+		}
+	}
+
+	@Test
+	public void verify_reader_slices() {
+		byte[] data = data(64);
+		for(BinaryReader reader: readers(data)) {
+			assertReader(range(data, 3, 50), reader.slice(3, 50));
+			assertReader(range(data, 10, 20), reader.slice(3, 50).slice(7, 20));
+			assertReader(new byte[0], reader.slice(64, 0));
+		}
+	}
+
+	@Test
+	public void verify_view_repointing() {
+		byte[] data = data(64);
+		BinaryReader base = new ByteArrayReader(data);
+		ReaderView view = new ReaderView();
+		for(int i = 0; i != 8; ++i) {
+			Assert.assertSame(view, view.point(base, i * 8, 8));
+			Assert.assertEquals(ByteBuffer.wrap(data).getLong(i * 8), view.getInt64(0));
+			assertReader(range(data, i * 8, 8), view);
+		}
+		BinaryReader slice = view.point(base, 8, 16).slice(4, 8);
+		view.point(base, 0, 0);
+		assertReader(range(data, 12, 8), slice);
+	}
+
+	@Test
+	public void verify_bounds_check() {
+		byte[] data = data(16);
+		for(BinaryReader reader: readers(data)) {
+			BinaryReader slice = reader.slice(4, 8);
+			try {
+				slice.getInt64(1);
+				Assert.assertTrue("Exception expected for " + slice, false);
+			}
+			catch(IndexOutOfBoundsException e) {
+				// expected
+			}
+			try {
+				slice.getByte(-1);
+				Assert.assertTrue("Exception expected for " + slice, false);
+			}
+			catch(IndexOutOfBoundsException e) {
+				// expected
+			}
+		}
+	}
+}
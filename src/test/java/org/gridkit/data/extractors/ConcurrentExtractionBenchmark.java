@@ -0,0 +1,94 @@
+package org.gridkit.data.extractors;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gridkit.data.extractors.common.CompositeExtractorSet;
+import org.gridkit.data.extractors.common.VectorResultReceiver;
+
+/**
+ * Measures throughput of single compiled plan shared by growing number of threads.
+ * Not a unit test, run manually.
+ */
+public class ConcurrentExtractionBenchmark {
+
+	private static final long DURATION_MS = 2000;
+
+	public static void main(String[] args) throws Exception {
+		CompositeExtractorSet set = ConcurrentExtractionTest.newPropertySet();
+		ByteBuffer[] sources = {
+			ByteBuffer.wrap(read("src/test/resources/protobuf/TextProperties-1.bin")),
+			ByteBuffer.wrap(read("src/test/resources/protobuf/TextProperties-2.bin")),
+			ByteBuffer.wrap(read("src/test/resources/protobuf/TextProperties-3.bin")),
+		};
+		int cpus = Runtime.getRuntime().availableProcessors();
+		// warm up
+		run(set, sources, cpus);
+		double single = 0;
+		for(int threads = 1; threads <= cpus; threads *= 2) {
+			double rate = run(set, sources, threads);
+			if (threads == 1) {
+				single = rate;
+			}
+			System.out.println(String.format("threads=%d  %.0f extractions/s  scaling=%.2f", threads, rate, rate / single));
+		}
+	}
+
+	private static double run(final CompositeExtractorSet set, final ByteBuffer[] sources, int threads) throws Exception {
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			final long deadline = System.currentTimeMillis() + DURATION_MS;
+			List<Future<Long>> futures = new ArrayList<Future<Long>>();
+			for(int t = 0; t != threads; ++t) {
+				futures.add(pool.submit(new Callable<Long>() {
+					@Override
+					public Long call() throws Exception {
+						CompositeExtractorSet.ExtractionContext context = set.newContext();
+						Sink sink = new Sink();
+						start.await();
+						long n = 0;
+						while(System.currentTimeMillis() < deadline) {
+							for(int i = 0; i != 1000; ++i) {
+								set.extractAll(sources[i % sources.length], sink, context);
+							}
+							n += 1000;
+						}
+						return n;
+					}
+				}));
+			}
+			start.countDown();
+			long total = 0;
+			for(Future<Long> f: futures) {
+				total += f.get();
+			}
+			return total * 1000d / DURATION_MS;
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	private static byte[] read(String path) throws IOException {
+		return BaseExtractionAssertTest.toBytes(new FileInputStream(path));
+	}
+
+	private static class Sink implements VectorResultReceiver {
+
+		int hash;
+
+		@Override
+		public void push(int id, Object part) {
+			hash += System.identityHashCode(part);
+		}
+	}
+}
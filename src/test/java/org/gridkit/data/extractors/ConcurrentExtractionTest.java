@@ -0,0 +1,147 @@
+package org.gridkit.data.extractors;
+
+import static org.gridkit.data.extractors.common.Extractors.chain;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.gridkit.data.extractors.common.AdaptiveBooleanPredicate;
+import org.gridkit.data.extractors.common.BinaryExtractor;
+import org.gridkit.data.extractors.common.BooleanBinaryPredicate;
+import org.gridkit.data.extractors.common.ComparisonPredicate;
+import org.gridkit.data.extractors.common.CompositeExtractorSet;
+import org.gridkit.data.extractors.common.ConstExtractor;
+import org.gridkit.data.extractors.common.EqualsPredicate;
+import org.gridkit.data.extractors.common.FilterExtractor;
+import org.gridkit.data.extractors.common.ListCollector;
+import org.gridkit.data.extractors.common.NotTransformer;
+import org.gridkit.data.extractors.common.VectorResultReceiver.VectorResult;
+import org.gridkit.data.extractors.protobuf.ProtoBufExtractor;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Single compiled plan is shared by many threads.
+ */
+public class ConcurrentExtractionTest extends BaseExtractionAssertTest {
+
+	private static final int THREADS = 8;
+	private static final int ITERATIONS = 2000;
+
+	static CompositeExtractorSet newPropertySet() {
+		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1).deduplicate(64);
+		ProtoBufExtractor<String> valueField = ProtoBufExtractor.string(2);
+		BinaryExtractor<Boolean> keyBPred = new EqualsPredicate(keyField, ConstExtractor.newConst("B"));
+		BinaryExtractor<Boolean> keyXXPred = new EqualsPredicate(keyField, ConstExtractor.newConst("XX"));
+		BinaryExtractor<Boolean> notZZPred = new NotTransformer(new EqualsPredicate(keyField, ConstExtractor.newConst("ZZ")));
+		BinaryExtractor<Boolean> bigPred = new ComparisonPredicate(ComparisonPredicate.GT, valueField, ConstExtractor.newConst("200"));
+
+		CompositeExtractorSet set = new CompositeExtractorSet();
+		set.addExtractor(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyBPred, valueField)));
+		set.addExtractor(ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(AdaptiveBooleanPredicate.and(notZZPred, keyXXPred), valueField))));
+		set.addExtractor(ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(BooleanBinaryPredicate.lazyAnd(keyBPred, bigPred), valueField))));
+		set.addExtractor(ListCollector.wrap(chain(ProtoBufExtractor.path(1), keyField)));
+		set.compile();
+		return set;
+	}
+
+	static ByteBuffer direct(byte[] data) {
+		ByteBuffer buffer = ByteBuffer.allocateDirect(data.length);
+		buffer.put(data);
+		buffer.flip();
+		return buffer;
+	}
+
+	@Test
+	public void shared_plan_concurrent_extraction() throws Exception {
+		final CompositeExtractorSet set = newPropertySet();
+		final ByteBuffer[] sources = {
+			ByteBuffer.wrap(getBytes("protobuf/TextProperties-1.bin")),
+			ByteBuffer.wrap(getBytes("protobuf/TextProperties-2.bin")),
+			direct(getBytes("protobuf/TextProperties-3.bin")),
+		};
+
+		final Object[][] expected = new Object[sources.length][];
+		for(int i = 0; i != sources.length; ++i) {
+			VectorResult r = new VectorResult(set.getSize());
+			set.extractAll(sources[i], r);
+			expected[i] = r.getVector();
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(int t = 0; t != THREADS; ++t) {
+				final int shift = t;
+				futures.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						CompositeExtractorSet.ExtractionContext context = set.newContext();
+						start.await();
+						for(int i = 0; i != ITERATIONS; ++i) {
+							int n = (i + shift) % sources.length;
+							VectorResult r = new VectorResult(set.getSize());
+							if (i % 2 == 0) {
+								set.extractAll(sources[n], r, context);
+							}
+							else {
+								set.extractAll(sources[n], r);
+							}
+							Assert.assertArrayEquals(expected[n], r.getVector());
+						}
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for(Future<Void> f: futures) {
+				f.get();
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+
+	@Test
+	public void concurrent_compilation() throws Exception {
+		final CompositeExtractorSet set = new CompositeExtractorSet();
+		set.addExtractor(ProtoBufExtractor.int32(1, 1, 3, 1));
+		set.addExtractor(chain(ProtoBufExtractor.path(2), ProtoBufExtractor.path(2, 3), ProtoBufExtractor.string(5)));
+		final ByteBuffer source = ByteBuffer.wrap(getBytes("protobuf/Tree-1.bin"));
+
+		ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+		try {
+			final CountDownLatch start = new CountDownLatch(1);
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for(int t = 0; t != THREADS; ++t) {
+				futures.add(pool.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						set.compile();
+						VectorResult r = new VectorResult(set.getSize());
+						set.extractAll(source, r);
+						Assert.assertEquals(1000, r.getVector()[0]);
+						Assert.assertEquals("Abc", r.getVector()[1]);
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for(Future<Void> f: futures) {
+				f.get();
+			}
+		}
+		finally {
+			pool.shutdown();
+		}
+	}
+}
@@ -2,12 +2,27 @@ package org.gridkit.data.extractors;
 
 import static org.gridkit.data.extractors.common.Extractors.chain;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
 import org.gridkit.data.extractors.common.AbstractValueTransformer;
+import org.gridkit.data.extractors.common.AdaptiveBooleanPredicate;
 import org.gridkit.data.extractors.common.BinaryExtractor;
+import org.gridkit.data.extractors.common.BinaryReader;
 import org.gridkit.data.extractors.common.Blob;
+import org.gridkit.data.extractors.common.BooleanBinaryPredicate;
+import org.gridkit.data.extractors.common.ByteArrayReader;
 import org.gridkit.data.extractors.common.ChainedBinaryExtractor;
 import org.gridkit.data.extractors.common.ComparisonPredicate;
 import org.gridkit.data.extractors.common.ConstExtractor;
@@ -15,9 +30,18 @@ import org.gridkit.data.extractors.common.EqualsPredicate;
 import org.gridkit.data.extractors.common.Extractors;
 import org.gridkit.data.extractors.common.FilterExtractor;
 import org.gridkit.data.extractors.common.ListCollector;
+import org.gridkit.data.extractors.common.MappedFile;
 import org.gridkit.data.extractors.common.MapExtractor;
+import org.gridkit.data.extractors.common.NotTransformer;
+import org.gridkit.data.extractors.common.Utf8String;
+import org.gridkit.data.extractors.common.VectorResultReceiver;
 import org.gridkit.data.extractors.common.VerbatimExtractor;
+import org.gridkit.data.extractors.common.VectorResultReceiver.VectorResult;
 import org.gridkit.data.extractors.protobuf.ProtoBufExtractor;
+import org.gridkit.data.extractors.protobuf.ProtoBufExtractorSet;
+import org.gridkit.data.extractors.protobuf.ProtoBufFieldIndex;
+import org.gridkit.data.extractors.protobuf.ProtocolBufferWireFormatException;
+import org.junit.Assert;
 import org.junit.Test;
 
 public class ProtoBufExtractionTest extends BaseExtractionAssertTest {
@@ -94,6 +118,174 @@ public class ProtoBufExtractionTest extends BaseExtractionAssertTest {
 		extract(getBytes("protobuf/SimpleObject-1.bin"));
 		assertValue("blobField", blob("XYZ"));
 	}
+	@Test
+	public void extract_simple_object_from_direct_buffer() {
+		addExtractor("intField", ProtoBufExtractor.int32(1));
+		addExtractor("slongField", ProtoBufExtractor.sint64(4));
+		addExtractor("stringField", ProtoBufExtractor.string(5));
+		addExtractor("doubleField", ProtoBufExtractor.fp(6));
+		extractDirect(getBytes("protobuf/SimpleObject-1.bin"));
+		assertValue("intField", 128);
+		assertValue("slongField", -10000000000l);
+		assertValue("stringField", "ABC");
+		assertValue("doubleField", 3.14d);
+	}
+
+	@Test
+	public void extract_singular_fields_from_complex_object() {
+		addExtractor("intField", ProtoBufExtractor.int32(2, 1).singular());
+		addExtractor("stringField", ProtoBufExtractor.string(2, 5).singular());
+		addExtractor("blobField", ProtoBufExtractor.newBlobExtractor(2, 8));
+		extract(getBytes("protobuf/ComplexObject-1.bin"));
+		assertValue("intField", 128);
+		assertValue("stringField", "ABC");
+		assertValue("blobField", blob("XYZ"));
+	}
+
+	@Test
+	public void extract_singular_field_stops_scan() {
+		addExtractor("intField", ProtoBufExtractor.int32(1).singular());
+		// field #1 = 128, followed by field #2 with invalid wire type
+		extract(new byte[]{0x08, (byte)0x80, 0x01, 0x17, 0x00});
+		assertValue("intField", 128);
+	}
+
+	@Test(expected=RuntimeException.class)
+	public void extract_repeated_field_scans_whole_message() {
+		addExtractor("intField", ProtoBufExtractor.int32(1));
+		extract(new byte[]{0x08, (byte)0x80, 0x01, 0x17, 0x00});
+	}
+
+	@Test
+	public void extract_repeated_fields_to_arrays() {
+		addExtractor("int32", ProtoBufExtractor.int32Array(1));
+		addExtractor("sint32", ProtoBufExtractor.sint32Array(2));
+		addExtractor("double", ProtoBufExtractor.doubleArray(3));
+		addExtractor("float", ProtoBufExtractor.floatArray(4));
+		addExtractor("fixed64", ProtoBufExtractor.fixed64Array(5));
+		addExtractor("missing", ProtoBufExtractor.int64Array(6));
+		
+		extract(repeatedFields());
+		Assert.assertArrayEquals(new int[]{1, 300, -1, 5}, (int[])getValue("int32"));
+		Assert.assertArrayEquals(new int[]{-2, 2}, (int[])getValue("sint32"));
+		Assert.assertArrayEquals(new double[]{1.5, -0.25}, (double[])getValue("double"), 0d);
+		Assert.assertArrayEquals(new double[]{2.5}, (double[])getValue("float"), 0d);
+		Assert.assertArrayEquals(new long[]{7}, (long[])getValue("fixed64"));
+		Assert.assertArrayEquals(new long[0], (long[])getValue("missing"));
+	}
+
+	private static byte[] repeatedFields() {
+		ByteBuffer bb = ByteBuffer.allocate(128).order(ByteOrder.LITTLE_ENDIAN);
+		// #1 packed [1, 300, -1] followed by unpacked 5
+		bb.put(new byte[]{0x0A, 13, 0x01, (byte)0xAC, 0x02});
+		bb.put(new byte[]{-1, -1, -1, -1, -1, -1, -1, -1, -1, 0x01});
+		bb.put(new byte[]{0x08, 0x05});
+		// #2 unpacked [-2, 2]
+		bb.put(new byte[]{0x10, 0x03, 0x10, 0x04});
+		// #3 packed [1.5, -0.25]
+		bb.put(new byte[]{0x1A, 16}).putDouble(1.5).putDouble(-0.25);
+		// #4 packed [2.5f]
+		bb.put(new byte[]{0x22, 4}).putFloat(2.5f);
+		// #5 unpacked [7]
+		bb.put((byte)0x29).putLong(7);
+		bb.flip();
+		byte[] data = new byte[bb.remaining()];
+		bb.get(data);
+		return data;
+	}
+
+	@Test
+	public void extract_repeated_fields_with_single_and_shared_slots() {
+		byte[] data = repeatedFields();
+		// field with single slot is decoded in place, second slot forces generic path
+		for(boolean shared: new boolean[]{false, true}) {
+			ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+			set.addExtractor(ProtoBufExtractor.int32Array(1));
+			set.addExtractor(ProtoBufExtractor.sint32Array(2));
+			set.addExtractor(ProtoBufExtractor.doubleArray(3));
+			set.addExtractor(ProtoBufExtractor.fixed64Array(5));
+			if (shared) {
+				set.addExtractor(ProtoBufExtractor.path(1));
+				set.addExtractor(ProtoBufExtractor.path(2));
+				set.addExtractor(ProtoBufExtractor.path(3));
+				set.addExtractor(ProtoBufExtractor.path(5));
+			}
+			set.compile();
+			VectorResult r = new VectorResult(set.getSize());
+			set.extractAll(ByteBuffer.wrap(data), r);
+			Assert.assertArrayEquals(new int[]{1, 300, -1, 5}, (int[])r.getVector()[0]);
+			Assert.assertArrayEquals(new int[]{-2, 2}, (int[])r.getVector()[1]);
+			Assert.assertArrayEquals(new double[]{1.5, -0.25}, (double[])r.getVector()[2], 0d);
+			Assert.assertArrayEquals(new long[]{7}, (long[])r.getVector()[3]);
+		}
+	}
+
+	@Test
+	public void extract_fields_with_wire_type_mismatch() {
+		// #1 is varint, #2 is length delimited
+		byte[] data = {0x08, 0x01, 0x12, 0x01, 0x41};
+		BinaryExtractor<?>[] mismatched = {ProtoBufExtractor.string(1), ProtoBufExtractor.int32(2), ProtoBufExtractor.doubleArray(1)};
+		for(BinaryExtractor<?> extractor: mismatched) {
+			// with single slot and with slot shared with other extractor
+			for(boolean shared: new boolean[]{false, true}) {
+				ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+				set.addExtractor(extractor);
+				if (shared) {
+					set.addExtractor(ProtoBufExtractor.path(1));
+					set.addExtractor(ProtoBufExtractor.path(2));
+				}
+				set.compile();
+				try {
+					set.extractAll(ByteBuffer.wrap(data), new VectorResult(set.getSize()));
+					Assert.assertTrue("Exception expected for " + extractor + (shared ? " (shared)" : ""), false);
+				}
+				catch(RuntimeException e) {
+					Assert.assertTrue(String.valueOf(e.getCause()), e.getCause() instanceof IOException);
+				}
+			}
+		}
+	}
+	
+	@Test
+	public void extract_varints_of_all_lengths() {
+		long[] values = new long[64 + 1];
+		for(int i = 0; i != 64; ++i) {
+			values[i] = (1l << i) - 1;
+		}
+		values[64] = -1;
+		
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		for(long v: values) {
+			// #1 collected, #3 skipped
+			writeVarint(bos, 0x08);
+			writeVarint(bos, v);
+			writeVarint(bos, 0x18);
+			writeVarint(bos, v);
+		}
+		writeVarint(bos, 0x10);
+		writeVarint(bos, 42);
+		byte[] data = bos.toByteArray();
+
+		addExtractor("values", ProtoBufExtractor.int64Array(1));
+		addExtractor("last", ProtoBufExtractor.int32(2));
+		
+		extract(data);
+		Assert.assertArrayEquals(values, (long[])getValue("values"));
+		assertValue("last", 42);
+
+		extractDirect(data);
+		Assert.assertArrayEquals(values, (long[])getValue("values"));
+		assertValue("last", 42);
+	}
+	
+	private static void writeVarint(ByteArrayOutputStream bos, long v) {
+		while((v & ~0x7Fl) != 0) {
+			bos.write((int)((v & 0x7F) | 0x80));
+			v >>>= 7;
+		}
+		bos.write((int)v);
+	}
+
 	@Test
 	public void extract_unsigned_int_from_complex_object() {
 		ProtoBufExtractor<Integer> pbe = ProtoBufExtractor.int32(2, 1);
@@ -222,6 +414,272 @@ public class ProtoBufExtractionTest extends BaseExtractionAssertTest {
 		assertValue("get(B)", "bbb");
 	}
 
+	@Test
+	public void extract_properties_reusing_context() {
+		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1);
+		ProtoBufExtractor<String> valueField = ProtoBufExtractor.string(2);
+		BinaryExtractor<Boolean> keyBPred = new EqualsPredicate(keyField, ConstExtractor.newConst("B"));
+		BinaryExtractor<Boolean> keyXXPred = new EqualsPredicate(keyField, ConstExtractor.newConst("XX"));
+		
+		addExtractor("get(B)", chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyBPred, valueField)));
+		addExtractor("all(XX)", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyXXPred, valueField))));
+		
+		for(int i = 0; i != 2; ++i) {
+			extractWithContext(getBytes("protobuf/TextProperties-2.bin"));
+			assertValue("get(B)", "bbb");
+			assertValue("all(XX)", Arrays.asList("v1", "v2", "v3", "v4", "v5"));
+			
+			extractWithContext(getBytes("protobuf/TextProperties-1.bin"));
+			assertValue("get(B)", "bbb");
+			assertValue("all(XX)", Arrays.asList());
+			
+			extractWithContext(getBytes("protobuf/TextProperties-3.bin"));
+			assertValue("get(B)", "256");
+			assertValue("all(XX)", Arrays.asList("N/A"));
+		}
+	}
+
+	@Test
+	public void extract_nested_composite_reusing_context() {
+		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1);
+		ProtoBufExtractor<String> valueField = ProtoBufExtractor.string(2);
+		BinaryExtractor<Boolean> keyBPred = new EqualsPredicate(keyField, ConstExtractor.newConst("B"));
+		
+		// composite is applied to each nested message by protobuf set itself
+		ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+		int getB = set.addExtractor(new ProtoBufExtractor<String>(new int[]{1}, FilterExtractor.filter(keyBPred, valueField)));
+		set.compile();
+		ProtoBufExtractorSet.ExtractionContext context = set.newContext();
+		
+		String[] files = {"protobuf/TextProperties-2.bin", "protobuf/TextProperties-1.bin", "protobuf/TextProperties-3.bin"};
+		String[] expected = {"bbb", "bbb", "256"};
+		for(int i = 0; i != 2; ++i) {
+			for(int j = 0; j != files.length; ++j) {
+				VectorResult r = new VectorResult(set.getSize());
+				set.extractAll(ByteBuffer.wrap(getBytes(files[j])), r, context);
+				Assert.assertEquals(expected[j], r.getVector()[getB]);
+			}
+		}
+		
+		ProtoBufExtractorSet other = new ProtoBufExtractorSet();
+		other.addExtractor(new ProtoBufExtractor<String>(new int[]{1}, FilterExtractor.filter(keyBPred, valueField)));
+		other.compile();
+		try {
+			set.extractAll(ByteBuffer.wrap(getBytes(files[0])), new VectorResult(set.getSize()), other.newContext());
+			Assert.assertTrue("Exception expected", false);
+		}
+		catch(IllegalArgumentException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void extract_with_absent_branches() {
+		BinaryExtractor<Integer> missing = chain(ProtoBufExtractor.path(1, 9), ProtoBufExtractor.int32(1));
+		BinaryExtractor<Boolean> missingPred = new EqualsPredicate(missing, ConstExtractor.newConst(1));
+		
+		addExtractor("l/l/v/int", ProtoBufExtractor.int32(1,1,3,1));
+		addExtractor("missing", missing);
+		addExtractor("missing==1", missingPred);
+		addExtractor("all(missing)", ListCollector.wrap(missing));
+		addExtractor("const", ConstExtractor.newConst("X"));
+		
+		for(int i = 0; i != 2; ++i) {
+			extractWithContext(getBytes("protobuf/Tree-1.bin"));
+			assertValue("l/l/v/int", 1000);
+			assertValue("missing", null);
+			assertValue("missing==1", null);
+			assertValue("all(missing)", Arrays.asList());
+			assertValue("const", "X");
+		}
+	}
+
+	@Test
+	public void extract_with_constant_folding() {
+		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1);
+		ProtoBufExtractor<String> valueField = ProtoBufExtractor.string(2);
+		BinaryExtractor<Boolean> keyBPred = new EqualsPredicate(keyField, ConstExtractor.newConst("B"));
+		BinaryExtractor<Boolean> constTrue = new EqualsPredicate(ConstExtractor.newConst("A"), ConstExtractor.newConst("A"));
+		BinaryExtractor<Boolean> constFalse = new NotTransformer(constTrue);
+		
+		BinaryExtractor<Boolean> and = new BooleanBinaryPredicate(BooleanBinaryPredicate.AND, constTrue, keyBPred);
+		BinaryExtractor<Boolean> or = new BooleanBinaryPredicate(BooleanBinaryPredicate.OR, keyBPred, constFalse);
+		BinaryExtractor<Boolean> xor = new BooleanBinaryPredicate(BooleanBinaryPredicate.XOR, constTrue, keyBPred);
+		BinaryExtractor<Boolean> lazy = BooleanBinaryPredicate.lazyOr(constFalse, keyBPred);
+		
+		addExtractor("const", new BooleanBinaryPredicate(BooleanBinaryPredicate.OR, constFalse, constTrue));
+		addExtractor("get(B)", chain(ProtoBufExtractor.path(1), FilterExtractor.filter(and, valueField)));
+		addExtractor("get(B) again", chain(ProtoBufExtractor.path(1), FilterExtractor.filter(or, valueField)));
+		addExtractor("get(B) lazy", chain(ProtoBufExtractor.path(1), FilterExtractor.filter(lazy, valueField)));
+		addExtractor("all(!B)", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(xor, valueField))));
+		
+		String dump = getDump();
+		// folded nodes are not part of the plan
+		Assert.assertTrue(dump, !dump.contains("<extractor>AND("));
+		Assert.assertTrue(dump, !dump.contains("<extractor>OR("));
+		Assert.assertTrue(dump, !dump.contains("<extractor>LAZY_OR("));
+		Assert.assertTrue(dump, !dump.contains("<extractor>XOR("));
+		
+		extractWithContext(getBytes("protobuf/TextProperties-1.bin"));
+		assertValue("const", true);
+		assertValue("get(B)", "bbb");
+		assertValue("get(B) again", "bbb");
+		assertValue("get(B) lazy", "bbb");
+		assertValue("all(!B)", Arrays.asList("aaa", "ccc", "ddd"));
+	}
+
+	@Test
+	public void extract_sharing_commuted_predicates() {
+		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1);
+		ProtoBufExtractor<String> valueField = ProtoBufExtractor.string(2);
+		ConstExtractor<String> limit = ConstExtractor.newConst("C");
+		
+		BinaryExtractor<Boolean> keyBPred = new EqualsPredicate(keyField, ConstExtractor.newConst("B"));
+		BinaryExtractor<Boolean> keyBPred2 = new EqualsPredicate(ConstExtractor.newConst("B"), keyField);
+		BinaryExtractor<Boolean> smallPred = new ComparisonPredicate(ComparisonPredicate.LT, keyField, limit);
+		BinaryExtractor<Boolean> smallPred2 = new ComparisonPredicate(ComparisonPredicate.GT, limit, keyField);
+		BinaryExtractor<Boolean> bigPred = new ComparisonPredicate(ComparisonPredicate.GE, keyField, limit);
+		BinaryExtractor<Boolean> bigPred2 = new ComparisonPredicate(ComparisonPredicate.LE, limit, keyField);
+		
+		addExtractor("get(B)", chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyBPred, valueField)));
+		addExtractor("get(B) again", chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyBPred2, valueField)));
+		addExtractor("all(<C)", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(smallPred, valueField))));
+		addExtractor("all(<C) again", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(smallPred2, valueField))));
+		addExtractor("all(>=C)", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(bigPred, valueField))));
+		addExtractor("all(>=C) again", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(bigPred2, valueField))));
+		
+		String dump = getDump();
+		Assert.assertEquals(dump, 1, count(dump, "<extractor>eq("));
+		Assert.assertEquals(dump, 1, count(dump, "<extractor>LT(") + count(dump, "<extractor>GT("));
+		Assert.assertEquals(dump, 1, count(dump, "<extractor>LE(") + count(dump, "<extractor>GE("));
+		
+		extract(getBytes("protobuf/TextProperties-3.bin"));
+		assertValue("get(B)", "256");
+		assertValue("get(B) again", "256");
+		assertValue("all(<C)", Arrays.asList("128", "256"));
+		assertValue("all(<C) again", Arrays.asList("128", "256"));
+		assertValue("all(>=C)", Arrays.asList("deleted", "512", "1024", "N/A"));
+		assertValue("all(>=C) again", Arrays.asList("deleted", "512", "1024", "N/A"));
+	}
+
+	private static int count(String text, String pattern) {
+		int n = 0;
+		for(int i = text.indexOf(pattern); i >= 0; i = text.indexOf(pattern, i + 1)) {
+			++n;
+		}
+		return n;
+	}
+
+	@Test
+	public void extract_lists_with_context_reuse() {
+		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1);
+		ProtoBufExtractor<String> valueField = ProtoBufExtractor.string(2);
+		BinaryExtractor<Boolean> keyXXPred = new EqualsPredicate(keyField, ConstExtractor.newConst("XX"));
+		
+		addExtractor("all(XX)", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyXXPred, valueField))));
+		
+		extractWithContext(getBytes("protobuf/TextProperties-1.bin"));
+		Object empty = getValue("all(XX)");
+		Assert.assertEquals(Collections.emptyList(), empty);
+		
+		extractWithContext(getBytes("protobuf/TextProperties-2.bin"));
+		Object full = getValue("all(XX)");
+		Assert.assertEquals(Arrays.asList("v1", "v2", "v3", "v4", "v5"), full);
+		// earlier result is not affected
+		Assert.assertEquals(Collections.emptyList(), empty);
+		Assert.assertTrue(empty != full);
+	}
+
+	@Test
+	public void extract_using_adaptive_predicate() {
+		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1);
+		ProtoBufExtractor<String> valueField = ProtoBufExtractor.string(2);
+		// never decides AND
+		BinaryExtractor<Boolean> notZZPred = new NotTransformer(new EqualsPredicate(keyField, ConstExtractor.newConst("ZZ")));
+		BinaryExtractor<Boolean> keyXXPred = new EqualsPredicate(keyField, ConstExtractor.newConst("XX"));
+		
+		BinaryExtractor<Boolean> andPred = AdaptiveBooleanPredicate.and(notZZPred, keyXXPred);
+		BinaryExtractor<Boolean> orPred = AdaptiveBooleanPredicate.or(new NotTransformer(notZZPred), keyXXPred);
+		
+		addExtractor("and(XX)", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(andPred, valueField))));
+		addExtractor("or(XX)", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(orPred, valueField))));
+		
+		for(int i = 0; i != 100; ++i) {
+			extractWithContext(getBytes("protobuf/TextProperties-2.bin"));
+			assertValue("and(XX)", Arrays.asList("v1", "v2", "v3", "v4", "v5"));
+			assertValue("or(XX)", Arrays.asList("v1", "v2", "v3", "v4", "v5"));
+		}
+		
+		// selective operand is moved ahead
+		String dump = getDump();
+		Assert.assertTrue(dump, dump.contains("<state>AND order=[1, 0]"));
+		Assert.assertTrue(dump, dump.contains("<state>OR order=[1, 0]"));
+	}
+
+	@Test
+	public void extract_property_by_name_using_utf8_view() {
+		ProtoBufExtractor<Utf8String> keyField = ProtoBufExtractor.utf8(1);
+		ProtoBufExtractor<String> valueField = ProtoBufExtractor.string(2);
+		
+		// constant on either side
+		BinaryExtractor<Boolean> keyAPred = new EqualsPredicate(keyField, ConstExtractor.newConst("A"));
+		BinaryExtractor<Boolean> keyBPred = new EqualsPredicate(ConstExtractor.newConst("B"), keyField);
+		BinaryExtractor<Boolean> keyGtBPred = new ComparisonPredicate(ComparisonPredicate.LT, ConstExtractor.newConst("B"), keyField);
+		BinaryExtractor<Boolean> keyNotCPred = new ComparisonPredicate(ComparisonPredicate.NE, keyField, ConstExtractor.newConst("C"));
+		BinaryExtractor<Boolean> keyDPred = new ComparisonPredicate(ComparisonPredicate.EQ, ConstExtractor.newConst("D"), keyField);
+		
+		addExtractor("get(A)", chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyAPred, valueField)));
+		addExtractor("get(B)", chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyBPred, valueField)));
+		addExtractor("get(>B)", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyGtBPred, valueField))));
+		addExtractor("get(!C)", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyNotCPred, valueField))));
+		addExtractor("get(D)", chain(ProtoBufExtractor.path(1), FilterExtractor.filter(keyDPred, valueField)));
+		extract(getBytes("protobuf/TextProperties-1.bin"));
+		assertValue("get(A)", "aaa");
+		assertValue("get(B)", "bbb");
+		assertValue("get(>B)", Arrays.asList("ccc", "ddd"));
+		assertValue("get(!C)", Arrays.asList("aaa", "bbb", "ddd"));
+		assertValue("get(D)", "ddd");
+	}
+
+	@Test
+	public void extract_deduplicated_string() {
+		addExtractor("stringField", ProtoBufExtractor.string(5).deduplicate(16));
+		extract(getBytes("protobuf/SimpleObject-1.bin"));
+		Object first = getValue("stringField");
+		Assert.assertEquals("ABC", first);
+		
+		extract(getBytes("protobuf/SimpleObject-1.bin"));
+		Assert.assertSame(first, getValue("stringField"));
+		extractDirect(getBytes("protobuf/SimpleObject-1.bin"));
+		Assert.assertSame(first, getValue("stringField"));
+	}
+
+	@Test
+	public void utf8_view_is_consistent_with_string() throws Exception {
+		String[] texts = {"", "A", "AB", "ABC", "\u00e9t\u00e9", "\u20ac", "\uD83D\uDE00", "\uE000", "\uFFFF", "a\uD83D\uDE00b"};
+		for(String a: texts) {
+			Utf8String va = new Utf8String(a.getBytes("UTF8"));
+			Assert.assertEquals(a, va.toString());
+			Assert.assertEquals(a.hashCode(), va.hashCode());
+			Assert.assertEquals(a.length(), va.length());
+			Assert.assertTrue(va.contentEquals(a));
+			Assert.assertTrue(va.contentEquals(new StringBuilder(a)));
+			// equals() is symmetric, view is never equal to a String
+			Assert.assertTrue(!va.equals(a));
+			Assert.assertEquals(a + " vs view", false, a.equals(va));
+			for(String b: texts) {
+				Utf8String vb = new Utf8String(b.getBytes("UTF8"));
+				int expected = Integer.signum(a.compareTo(b));
+				Assert.assertEquals(a + " vs " + b, expected, Integer.signum(va.compareTo(vb)));
+				Assert.assertEquals(a + " vs " + b, expected, Integer.signum(va.compareTo(b)));
+				Assert.assertEquals(a + " vs " + b, a.equals(b), va.equals(vb));
+				Assert.assertEquals(a + " vs " + b, a.equals(b), va.contentEquals(b));
+				Assert.assertEquals(a + " vs " + b, a.equals(b), va.contentEquals(vb));
+				Assert.assertEquals(a + " vs " + b, a.startsWith(b), va.startsWith(b));
+			}
+		}
+	}
+	
 	@Test(expected=NumberFormatException.class)
 	public void extract_property_by_name__fail_on_eager_parsing() {
 		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1);
@@ -241,6 +699,44 @@ public class ProtoBufExtractionTest extends BaseExtractionAssertTest {
 		assertValue("get(B)", 256);
 	}
 
+	@Test
+	public void extract_property_using_short_circuit_predicates() {
+		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1);
+		ProtoBufExtractor<String> valueField = ProtoBufExtractor.string(2);
+		BinaryExtractor<Integer> intValue = new StringToInt(valueField);
+		
+		BinaryExtractor<Boolean> keyAPred = new EqualsPredicate(keyField, ConstExtractor.newConst("A"));
+		// would fail for "deleted" and "N/A" if evaluated
+		BinaryExtractor<Boolean> bigPred = new ComparisonPredicate(ComparisonPredicate.GT, intValue, ConstExtractor.newConst(100));
+		
+		BinaryExtractor<Boolean> andPred = BooleanBinaryPredicate.lazyAnd(keyAPred, bigPred);
+		BinaryExtractor<Boolean> orPred = BooleanBinaryPredicate.lazyOr(new NotTransformer(keyAPred), bigPred);
+		
+		addExtractor("A&big", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(andPred, valueField))));
+		addExtractor("!A|big", ListCollector.wrap(chain(ProtoBufExtractor.path(1), FilterExtractor.filter(orPred, valueField))));
+		extract(getBytes("protobuf/TextProperties-3.bin"));
+		assertValue("A&big", Arrays.asList("128"));
+		assertValue("!A|big", Arrays.asList("deleted", "128", "256", "512", "1024", "N/A"));
+	}
+
+	@Test
+	public void extract_using_lazy_predicates_from_reader() {
+		byte[] tree = getBytes("protobuf/Tree-1.bin");
+		ProtoBufExtractor<Integer> intField = ProtoBufExtractor.int32(1, 1, 3, 1);
+		ProtoBufExtractor<String> strField = ProtoBufExtractor.string(2, 2, 3, 5);
+		BinaryExtractor<Boolean> p = new EqualsPredicate(intField, ConstExtractor.newConst(1000));
+		BinaryExtractor<Boolean> notP = new NotTransformer(p);
+		
+		for(BinaryReader reader: new BinaryReader[]{new ByteArrayReader(tree), BinaryReaderTest.chunked(tree, 5)}) {
+			Assert.assertEquals(Boolean.TRUE, Extractors.extract(reader, BooleanBinaryPredicate.lazyAnd(p, p)));
+			Assert.assertEquals(Boolean.FALSE, Extractors.extract(reader, BooleanBinaryPredicate.lazyAnd(p, notP)));
+			Assert.assertEquals(Boolean.TRUE, Extractors.extract(reader, BooleanBinaryPredicate.lazyOr(notP, p)));
+			Assert.assertEquals(Boolean.TRUE, Extractors.extract(reader, AdaptiveBooleanPredicate.and(p, p)));
+			Assert.assertEquals(Boolean.FALSE, Extractors.extract(reader, AdaptiveBooleanPredicate.or(notP, notP)));
+			Assert.assertEquals("Abc", Extractors.extract(reader, FilterExtractor.lazyFilter(p, strField)));
+		}
+	}
+
 	@Test
 	public void extract_property_by_name_using_lazy_parser() {
 		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1);
@@ -350,6 +846,308 @@ public class ProtoBufExtractionTest extends BaseExtractionAssertTest {
 		assertValue("getAll(XX)", Arrays.asList(2l, 2l, 2l, 2l, 2l));
 	}
 	
+	@Test
+	public void extract_using_cached_plans() {
+		ByteBuffer data = ByteBuffer.wrap(getBytes("protobuf/Tree-1.bin"));
+		for(int i = 0; i != 2; ++i) {
+			Assert.assertEquals(Integer.valueOf(1000), Extractors.extract(data, ProtoBufExtractor.int32(1,1,3,1)));
+			Assert.assertEquals("Abc", Extractors.extract(data, ProtoBufExtractor.string(2,2,3,5)));
+			Object[] r = Extractors.extractAll(data, ProtoBufExtractor.string(2,2,3,5), ProtoBufExtractor.int32(1,1,3,1), ProtoBufExtractor.string(2,2,3,5));
+			Assert.assertArrayEquals(new Object[]{"Abc", 1000, "Abc"}, r);
+		}
+	}
+
+	@Test
+	public void extract_from_mapped_file() throws IOException {
+		byte[] record = getBytes("protobuf/Tree-1.bin");
+		int stride = record.length + 5;
+		File file = File.createTempFile("mapped-", ".bin");
+		file.deleteOnExit();
+		FileOutputStream fos = new FileOutputStream(file);
+		for(int i = 0; i != 10; ++i) {
+			fos.write(record);
+			fos.write(new byte[stride - record.length]);
+		}
+		fos.close();
+		
+		ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+		set.addExtractor(ProtoBufExtractor.string(2, 2, 3, 5));
+		set.addExtractor(ProtoBufExtractor.int32(1, 1, 3, 1));
+		set.compile();
+		
+		// overlap covering records and overlap too small for them
+		for(int overlap: new int[]{record.length, 8}) {
+			MappedFile mf = new MappedFile(new RandomAccessFile(file, "r").getChannel(), 32, overlap);
+			try {
+				Assert.assertEquals(10l * stride, mf.size());
+				for(int i = 0; i != 10; ++i) {
+					long pos = (long)i * stride;
+					VectorResult r = new VectorResult(set.getSize());
+					set.extractAll(mf.reader(pos, record.length), r);
+					Assert.assertEquals("Abc", r.getVector()[0]);
+					Assert.assertEquals(1000, r.getVector()[1]);
+					Assert.assertEquals("Abc", Extractors.extract(mf.reader(pos, record.length), ProtoBufExtractor.string(2, 2, 3, 5)));
+					Assert.assertEquals(ByteBuffer.wrap(record), mf.buffer(pos, record.length));
+				}
+			}
+			finally {
+				mf.close();
+			}
+		}
+	}
+
+	@Test
+	public void extract_from_chunked_buffers() {
+		byte[] data = getBytes("protobuf/TextProperties-2.bin");
+		ProtoBufExtractor<String> keyField = ProtoBufExtractor.string(1, 1);
+		ProtoBufExtractor<String> valueField = ProtoBufExtractor.string(1, 2);
+		ListCollector<String> keys = new ListCollector<String>(keyField);
+		ListCollector<String> values = new ListCollector<String>(valueField);
+		for(int chunk: new int[]{1, 2, 5, data.length}) {
+			Object[] r = Extractors.extractAll(BinaryReaderTest.chunked(data, chunk), keys, values);
+			Assert.assertEquals(Arrays.asList("A", "C", "D", "XX", "XX", "XX", "XX", "XX", "B"), r[0]);
+			Assert.assertEquals(Extractors.extractAll(ByteBuffer.wrap(data), values)[0], r[1]);
+		}
+	}
+
+	@Test
+	public void extract_from_stream() throws IOException {
+		byte[] tree = getBytes("protobuf/Tree-1.bin");
+		// tree fields surrounded by 1MiB field #15 which is not extracted
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		byte[] junk = new byte[1 << 20];
+		byte[] junkHeader = {(15 << 3) | 2, (byte)0x80, (byte)0x80, 0x40};
+		bos.write(junkHeader);
+		bos.write(junk);
+		bos.write(tree);
+		bos.write(junkHeader);
+		bos.write(junk);
+		byte[] data = bos.toByteArray();
+		
+		ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+		set.addExtractor(ProtoBufExtractor.string(2, 2, 3, 5));
+		set.addExtractor(ProtoBufExtractor.int32(1, 1, 3, 1));
+		set.compile();
+		
+		TrickleStream in = new TrickleStream(data);
+		VectorResult r = new VectorResult(set.getSize());
+		set.extractStream(in, r);
+		Assert.assertEquals("Abc", r.getVector()[0]);
+		Assert.assertEquals(1000, r.getVector()[1]);
+		Assert.assertTrue("Junk should be skipped, not read", in.bytesRead < junk.length);
+	}
+
+	@Test
+	public void extract_from_truncated_stream() throws IOException {
+		byte[] tree = getBytes("protobuf/Tree-1.bin");
+		// field #15 declares 1MiB, but input ends after 1000 bytes of it
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bos.write(tree);
+		bos.write(new byte[]{(15 << 3) | 2, (byte)0x80, (byte)0x80, 0x40});
+		bos.write(new byte[1000]);
+		byte[] data = bos.toByteArray();
+		
+		ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+		set.addExtractor(ProtoBufExtractor.string(2, 2, 3, 5));
+		set.compile();
+		
+		for(InputStream in: new InputStream[]{new ByteArrayInputStream(data), new TrickleStream(data)}) {
+			try {
+				set.extractStream(in, new VectorResult(set.getSize()));
+				Assert.assertTrue("Truncated message expected", false);
+			}
+			catch(ProtocolBufferWireFormatException e) {
+				// expected
+			}
+		}
+	}
+
+	@Test
+	public void extract_using_push_scanner() throws IOException {
+		byte[] tree = getBytes("protobuf/Tree-1.bin");
+		ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+		set.addExtractor(ProtoBufExtractor.string(2, 2, 3, 5).singular());
+		set.addExtractor(ProtoBufExtractor.int32(1, 1, 3, 1).singular());
+		set.addExtractor(ProtoBufExtractor.path(1).singular());
+		set.compile();
+		
+		for(int chunk: new int[]{1, 3, tree.length}) {
+			VectorResult r = new VectorResult(set.getSize());
+			ProtoBufExtractorSet.Scanner scanner = set.newScanner(r);
+			for(int i = 0; i < tree.length; i += chunk) {
+				scanner.push(tree, i, Math.min(chunk, tree.length - i));
+			}
+			// values are available before end of message is signaled
+			Assert.assertEquals("Abc", r.getVector()[0]);
+			Assert.assertEquals(1000, r.getVector()[1]);
+			Assert.assertEquals(Extractors.extract(ByteBuffer.wrap(tree), ProtoBufExtractor.path(1)), r.getVector()[2]);
+			// all fields are singular, so rest of message is not needed
+			Assert.assertTrue(scanner.isComplete());
+			scanner.push(ByteBuffer.wrap(new byte[100]));
+			scanner.finish();
+			Assert.assertEquals(tree.length + 100l, scanner.getPosition());
+		}
+	}
+
+	@Test
+	public void extract_scalar_path_using_push_scanner() throws IOException {
+		// {1: 42, 2: 7}
+		byte[] data = {(1 << 3), 42, (2 << 3), 7};
+		ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+		set.addExtractor(ProtoBufExtractor.path(1));
+		set.addExtractor(ProtoBufExtractor.int32(2));
+		set.compile();
+		
+		VectorResult r = new VectorResult(set.getSize());
+		ProtoBufExtractorSet.Scanner scanner = set.newScanner(r);
+		scanner.push(data, 0, data.length);
+		scanner.finish();
+		// buffer of field #1 should not be overwritten by field #2
+		ByteBuffer bb = (ByteBuffer) r.getVector()[0];
+		Assert.assertEquals(1, bb.remaining());
+		Assert.assertEquals(42, bb.get(bb.position()));
+		Assert.assertEquals(7, r.getVector()[1]);
+	}
+
+	@Test
+	public void extract_nested_path_using_push_scanner() throws IOException {
+		// {1: {2: "hello"}, 3: {2: "world"}}, both fields are buffered by scanner
+		byte[] data = {(1 << 3) | 2, 7, (2 << 3) | 2, 5, 'h', 'e', 'l', 'l', 'o', (3 << 3) | 2, 7, (2 << 3) | 2, 5, 'w', 'o', 'r', 'l', 'd'};
+		ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+		set.addExtractor(ProtoBufExtractor.string(1));
+		set.addExtractor(ProtoBufExtractor.path(1, 2));
+		set.addExtractor(ProtoBufExtractor.string(3));
+		set.compile();
+		
+		VectorResult r = new VectorResult(set.getSize());
+		ProtoBufExtractorSet.Scanner scanner = set.newScanner(r);
+		scanner.push(data, 0, data.length);
+		scanner.finish();
+		// buffer of nested field should not be overwritten by field #3
+		Assert.assertEquals(ByteBuffer.wrap("hello".getBytes()), r.getVector()[1]);
+		Assert.assertEquals(Extractors.extract(ByteBuffer.wrap(data), ProtoBufExtractor.path(1, 2)), r.getVector()[1]);
+	}
+
+	@Test
+	public void extract_repeated_using_push_scanner() throws IOException {
+		byte[] data = getBytes("protobuf/TextProperties-2.bin");
+		ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+		set.addExtractor(ProtoBufExtractor.string(1, 1));
+		set.compile();
+		
+		final List<Object> keys = new ArrayList<Object>();
+		ProtoBufExtractorSet.Scanner scanner = set.newScanner(new VectorResultReceiver() {
+			@Override
+			public void push(int id, Object part) {
+				keys.add(part);
+			}
+		});
+		for(int i = 0; i != data.length; ++i) {
+			scanner.push(data, i, 1);
+		}
+		scanner.finish();
+		Assert.assertEquals(Arrays.asList("A", "C", "D", "XX", "XX", "XX", "XX", "XX", "B"), keys);
+		
+		scanner.reset();
+		scanner.push(data, 0, data.length - 1);
+		try {
+			scanner.finish();
+			Assert.assertTrue("Truncated message expected", false);
+		}
+		catch(IOException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Returns data in small portions, counts bytes actually read.
+	 */
+	private static class TrickleStream extends ByteArrayInputStream {
+		
+		int bytesRead;
+		
+		public TrickleStream(byte[] data) {
+			super(data);
+		}
+
+		@Override
+		public synchronized int read(byte[] b, int off, int len) {
+			int n = super.read(b, off, Math.min(len, 7));
+			bytesRead += Math.max(0, n);
+			return n;
+		}
+	}
+
+	@Test
+	public void extract_using_field_index() {
+		ByteBuffer data = ByteBuffer.wrap(getBytes("protobuf/Tree-1.bin"));
+		ProtoBufFieldIndex index = new ProtoBufFieldIndex();
+		
+		ProtoBufExtractorSet set1 = new ProtoBufExtractorSet();
+		set1.addExtractor(ProtoBufExtractor.int32(1, 1, 3, 1));
+		set1.compile();
+		VectorResult r1 = new VectorResult(set1.getSize());
+		set1.extractAll(data, index, r1);
+		Assert.assertEquals(1000, r1.getVector()[0]);
+		Assert.assertTrue(index.size() > 0);
+		
+		ProtoBufExtractorSet set2 = new ProtoBufExtractorSet();
+		set2.addExtractor(ProtoBufExtractor.string(2, 2, 3, 5));
+		set2.addExtractor(ProtoBufExtractor.int32(1, 1, 3, 1));
+		set2.compile();
+		// first pass uses and extends index, second pass is fully indexed
+		for(int i = 0; i != 2; ++i) {
+			VectorResult r2 = new VectorResult(set2.getSize());
+			set2.extractAll(data, index, r2);
+			Assert.assertEquals("Abc", r2.getVector()[0]);
+			Assert.assertEquals(1000, r2.getVector()[1]);
+		}
+	}
+
+	@Test
+	public void extract_using_overflown_field_index() {
+		ByteBuffer data = ByteBuffer.wrap(getBytes("protobuf/Tree-1.bin"));
+		ProtoBufFieldIndex index = new ProtoBufFieldIndex(2);
+		
+		ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+		set.addExtractor(ProtoBufExtractor.string(2, 2, 3, 5));
+		set.addExtractor(ProtoBufExtractor.int32(1, 1, 3, 1));
+		set.compile();
+		for(int i = 0; i != 2; ++i) {
+			VectorResult r = new VectorResult(set.getSize());
+			set.extractAll(data, index, r);
+			Assert.assertTrue(index.size() <= 2);
+			Assert.assertEquals("Abc", r.getVector()[0]);
+			Assert.assertEquals(1000, r.getVector()[1]);
+		}
+	}
+	
+	@Test
+	public void extract_using_overflown_nested_field_index() {
+		// {1: {1: 1, 2: 2, 3: 3}, 2: 5, 3: 6}
+		ByteBuffer data = ByteBuffer.wrap(new byte[]{(1 << 3) | 2, 6, (1 << 3), 1, (2 << 3), 2, (3 << 3), 3, (2 << 3), 5, (3 << 3), 6});
+		
+		ProtoBufExtractorSet set = new ProtoBufExtractorSet();
+		set.addExtractor(ProtoBufExtractor.int32(1, 2));
+		set.addExtractor(ProtoBufExtractor.int32(2));
+		set.compile();
+		
+		// 3 root records and 3 nested records
+		int[] capacities = {2, 4, 5, 6};
+		int[] sizes = {0, 0, 0, 6};
+		for(int i = 0; i != capacities.length; ++i) {
+			ProtoBufFieldIndex index = new ProtoBufFieldIndex(capacities[i]);
+			for(int j = 0; j != 2; ++j) {
+				VectorResult r = new VectorResult(set.getSize());
+				set.extractAll(data, index, r);
+				Assert.assertEquals(2, r.getVector()[0]);
+				Assert.assertEquals(5, r.getVector()[1]);
+				// records of nested message are released with overflown root
+				Assert.assertEquals(index.toString(), sizes[i], index.size());
+			}
+		}
+	}
+
 	@SuppressWarnings("serial")
 	public static class BlobLength extends AbstractValueTransformer<ByteBuffer, Long> {
 
@@ -0,0 +1,77 @@
+package org.gridkit.data.extractors.protobuf;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class FieldTableTest {
+
+	private static FieldTable<String> table(int... keys) {
+		String[] values = new String[keys.length];
+		for(int i = 0; i != keys.length; ++i) {
+			values[i] = "#" + keys[i];
+		}
+		return new FieldTable<String>(keys, values);
+	}
+
+	private static void assertLookup(FieldTable<String> table, int[] keys, int... misses) {
+		for(int key: keys) {
+			Assert.assertEquals("#" + key, table.get(key));
+		}
+		for(int key: misses) {
+			Assert.assertEquals("Miss " + key + " in " + table, null, table.get(key));
+		}
+	}
+
+	@Test
+	public void verify_dense_and_hashed_fields() {
+		int[] keys = {1, 5, 127, 128, 200, 1000, 100000, (1 << 29) - 1};
+		FieldTable<String> table = table(keys);
+		Assert.assertTrue(table.toString(), table.toString().endsWith("sorted=[]"));
+		assertLookup(table, keys, 0, 2, 126, 129, 199, 201, 999, 1001, 99999, 1 << 28);
+	}
+
+	@Test
+	public void verify_hashed_fields_only() {
+		int[] keys = {128, 129, 256, 1024, 50000};
+		FieldTable<String> table = table(keys);
+		Assert.assertTrue(table.toString(), table.toString().startsWith("dense=0,"));
+		assertLookup(table, keys, 0, 1, 127, 130, 255, 257, 1023, 49999);
+	}
+
+	@Test
+	public void verify_single_sparse_field() {
+		int[] keys = {3, 1000};
+		assertLookup(table(keys), keys, 0, 1, 2, 4, 128, 999, 1001);
+	}
+
+	@Test
+	public void verify_sorted_fallback() {
+		// too many random sparse numbers to place them without collision
+		Random rnd = new Random(1);
+		Map<Integer, Boolean> set = new HashMap<Integer, Boolean>();
+		while(set.size() < 3000) {
+			set.put(FieldTable.DENSE_LIMIT + rnd.nextInt(1 << 20), Boolean.TRUE);
+		}
+		int[] keys = new int[set.size() + 2];
+		int n = 0;
+		for(Integer key: set.keySet()) {
+			keys[n++] = key;
+		}
+		keys[n++] = 1;
+		keys[n++] = 10;
+		FieldTable<String> table = table(keys);
+		Assert.assertTrue(table.toString(), table.toString().contains("hash=[]"));
+		Assert.assertTrue(table.toString(), !table.toString().endsWith("sorted=[]"));
+		assertLookup(table, keys, 0, 2, 11);
+		for(int i = 0; i != 10000; ++i) {
+			int key = FieldTable.DENSE_LIMIT + rnd.nextInt(1 << 21);
+			if (!set.containsKey(key)) {
+				assertLookup(table, new int[0], key);
+			}
+		}
+	}
+}